@@ -0,0 +1,47 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs the benchmarks with the GC profiler and writes JSON results to results/jmh-&lt;version&gt;.json so runs of
+ * different versions can be compared.  Any standard JMH command line options are passed through.
+ *
+ * The version is the crashreporteranalyzer.benchmark.version system property if set, so runs of unreleased
+ * changes can be told apart, and otherwise the Implementation-Version in the manifest of the jar the library was
+ * loaded from.
+ */
+public class BenchmarkRunner {
+    public static final String VERSION_PROPERTY = "crashreporteranalyzer.benchmark.version";
+
+    public static void main(String[] args) throws Exception {
+        String version = System.getProperty(VERSION_PROPERTY);
+        if (version == null) {
+            version = PlCrashReporterAnalyzer.class.getPackage().getImplementationVersion();
+        }
+        if (version == null) {
+            version = "dev";
+        }
+
+        File results = new File("results");
+        if (!results.isDirectory() && !results.mkdirs()) {
+            throw new IllegalStateException("Unable to create " + results);
+        }
+
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(PlCrashReporterAnalyzerBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(new File(results, "jmh-" + version + ".json").getPath())
+                .build();
+
+        new Runner(options).run();
+    }
+}
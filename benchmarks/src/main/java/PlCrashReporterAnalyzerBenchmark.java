@@ -0,0 +1,120 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport;
+
+/**
+ * Throughput of the public PlCrashReporterAnalyzer entry points over a synthetic report.
+ * Run with -prof gc to also record the allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PlCrashReporterAnalyzerBenchmark {
+    @Param({"20"})
+    public int threads;
+
+    @Param({"30"})
+    public int framesPerThread;
+
+    @Param({"250"})
+    public int images;
+
+    @Param({"false", "true"})
+    public boolean exception;
+
+    private byte file[];
+    private File path;
+    private PlCrashReporterAnalyzer analyzer;
+    private long pcs[];
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SyntheticCrashReportGenerator generator =
+                new SyntheticCrashReportGenerator(threads, framesPerThread, images, exception);
+
+        File directory = File.createTempFile("plcrash-bench", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Unable to create " + directory);
+        }
+
+        file = generator.generateFile(42);
+        path = generator.writeFile(directory, 42);
+        analyzer = new PlCrashReporterAnalyzer(file);
+
+        List<Long> frames = new ArrayList<Long>();
+        for (CrashReport.Thread thread : generator.generate(42).getThreadsList()) {
+            for (CrashReport.Thread.StackFrame frame : thread.getFramesList()) {
+                frames.add(frame.getPc());
+            }
+        }
+        pcs = new long[frames.size()];
+        for (int i = 0; i < pcs.length; i++) {
+            pcs[i] = frames.get(i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File directory = path.getParentFile();
+        path.delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public PlCrashReporterAnalyzer parseByteArray() throws Exception {
+        return new PlCrashReporterAnalyzer(file);
+    }
+
+    @Benchmark
+    public PlCrashReporterAnalyzer parseByteBuffer() throws Exception {
+        return new PlCrashReporterAnalyzer(ByteBuffer.wrap(file));
+    }
+
+    @Benchmark
+    public PlCrashReporterAnalyzer parsePath() throws Exception {
+        return new PlCrashReporterAnalyzer(path.getPath());
+    }
+
+    @Benchmark
+    public String crashFingerPrint() throws Exception {
+        return analyzer.getCrashFingerPrint();
+    }
+
+    @Benchmark
+    public String crashReport() {
+        return analyzer.getCrashReport();
+    }
+
+    /* One operation looks up every frame of every thread */
+    @Benchmark
+    public void imageForAddress(Blackhole blackhole) {
+        for (long pc : pcs) {
+            blackhole.consume(analyzer.getImageForAddress(pc));
+        }
+    }
+}
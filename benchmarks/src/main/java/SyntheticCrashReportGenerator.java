@@ -0,0 +1,201 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import com.google.protobuf.ByteString;
+import coop.plausible.crashreporter.CrashReport_pb.Architecture;
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport;
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport.ApplicationInfo;
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport.BinaryImage;
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport.MachineInfo;
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport.ProcessInfo;
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport.Processor;
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport.ReportInfo;
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport.Signal;
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport.SystemInfo;
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport.Thread;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds plcrash files that look like real iOS crash reports: an ARMv7 process with a main executable and a
+ * number of system frameworks loaded, one crashed thread, and stack frames that mostly land inside the loaded
+ * images.  Output is deterministic for a given seed.
+ */
+public class SyntheticCrashReportGenerator {
+    private static final String PROCESS_PATH = "/var/mobile/Applications/0D1D7A6E/Sample.app/Sample";
+    private static final String REGISTER_NAMES[] = {
+            "r0", "r1", "r2", "r3", "r4", "r5", "r6", "r7", "r8", "r9", "r10", "r11", "r12", "sp", "lr", "pc", "cpsr"
+    };
+
+    private final int threadCount;
+    private final int framesPerThread;
+    private final int imageCount;
+    private final boolean withException;
+
+    public SyntheticCrashReportGenerator(int threadCount, int framesPerThread, int imageCount, boolean withException) {
+        if (threadCount < 1 || framesPerThread < 0 || imageCount < 1) {
+            throw new IllegalArgumentException("Need at least one thread and one image");
+        }
+        this.threadCount = threadCount;
+        this.framesPerThread = framesPerThread;
+        this.imageCount = imageCount;
+        this.withException = withException;
+    }
+
+    public CrashReport generate(long seed) {
+        Random random = new Random(seed);
+        CrashReport.Builder builder = CrashReport.newBuilder();
+
+        builder.setSystemInfo(SystemInfo.newBuilder()
+                .setOperatingSystem(SystemInfo.OperatingSystem.IPHONE_OS)
+                .setOsVersion("6.0.1")
+                .setOsBuild("10A523")
+                .setArchitecture(Architecture.ARMV7)
+                .setTimestamp(1354000000L + random.nextInt(86400 * 30)));
+        builder.setApplicationInfo(ApplicationInfo.newBuilder()
+                .setIdentifier("com.example.sample")
+                .setVersion("1." + random.nextInt(10)));
+        builder.setProcessInfo(ProcessInfo.newBuilder()
+                .setProcessName("Sample")
+                .setProcessId(100 + random.nextInt(1000))
+                .setProcessPath(PROCESS_PATH)
+                .setParentProcessName("launchd")
+                .setParentProcessId(1)
+                .setNative(true));
+        builder.setMachineInfo(MachineInfo.newBuilder()
+                .setModel("iPhone4,1")
+                .setProcessor(armv7())
+                .setProcessorCount(2)
+                .setLogicalProcessorCount(2));
+        builder.setSignal(Signal.newBuilder()
+                .setName("SIGSEGV")
+                .setCode("SEGV_ACCERR")
+                .setAddress(random.nextInt() & 0xffffffffL));
+        builder.setReportInfo(ReportInfo.newBuilder().setUserRequested(false));
+
+        if (withException) {
+            builder.setException(CrashReport.Exception.newBuilder()
+                    .setName("NSRangeException")
+                    .setReason("*** -[__NSArrayI objectAtIndex:]: index " + random.nextInt(100) + " beyond bounds"));
+        }
+
+        // Lay the images out back to back with small gaps, then shuffle them as dyld load order would
+        long baseAddresses[] = new long[imageCount];
+        long sizes[] = new long[imageCount];
+        List<BinaryImage> images = new ArrayList<BinaryImage>(imageCount);
+        long address = 0x1000;
+        for (int i = 0; i < imageCount; i++) {
+            baseAddresses[i] = address;
+            sizes[i] = 0x1000 + random.nextInt(0x200000);
+
+            byte uuid[] = new byte[16];
+            random.nextBytes(uuid);
+
+            images.add(BinaryImage.newBuilder()
+                    .setBaseAddress(address)
+                    .setSize(sizes[i])
+                    .setName(i == 0 ? PROCESS_PATH : "/System/Library/Frameworks/Framework" + i + ".framework/Framework" + i)
+                    .setUuid(ByteString.copyFrom(uuid))
+                    .setCodeType(armv7())
+                    .build());
+
+            address += sizes[i] + 0x1000 * random.nextInt(16);
+        }
+        Collections.shuffle(images, random);
+        builder.addAllBinaryImages(images);
+
+        int crashedThread = random.nextInt(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            Thread.Builder thread = Thread.newBuilder()
+                    .setThreadNumber(t)
+                    .setCrashed(t == crashedThread);
+
+            for (int f = 0; f < framesPerThread; f++) {
+                long pc;
+                if (random.nextInt(50) == 0) {
+                    // An address outside every image
+                    pc = address + random.nextInt(0x10000);
+                } else {
+                    int image = random.nextInt(imageCount);
+                    pc = baseAddresses[image] + random.nextInt((int)sizes[image]);
+                }
+                thread.addFrames(Thread.StackFrame.newBuilder().setPc(pc));
+            }
+
+            if (t == crashedThread) {
+                for (String name : REGISTER_NAMES) {
+                    thread.addRegisters(Thread.RegisterValue.newBuilder()
+                            .setName(name)
+                            .setValue(random.nextInt() & 0xffffffffL));
+                }
+            }
+
+            builder.addThreads(thread);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Returns a complete plcrash file, header included.
+     */
+    public byte[] generateFile(long seed) {
+        byte report[] = generate(seed).toByteArray();
+        byte file[] = new byte[PlCrashReportFileHeader.HEADER_SIZE + report.length];
+
+        System.arraycopy("plcrash".getBytes(), 0, file, 0, 7);
+        file[7] = 1;
+        System.arraycopy(report, 0, file, PlCrashReportFileHeader.HEADER_SIZE, report.length);
+        return file;
+    }
+
+    public File writeFile(File directory, long seed) throws IOException {
+        File file = new File(directory, String.format("synthetic-%08d%s", seed, PlCrashBatchAnalyzer.FILE_EXTENSION));
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(generateFile(seed));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static Processor armv7() {
+        return Processor.newBuilder()
+                .setEncoding(Processor.TypeEncoding.TYPE_ENCODING_MACH)
+                .setType(PlCrashReporterAnalyzer.CpuType.CPU_TYPE_ARM.getValue())
+                .setSubtype(PlCrashReporterAnalyzer.CpuSubTypeArm.CPU_SUBTYPE_ARM_V7.getValue())
+                .build();
+    }
+
+    /**
+     * Usage: SyntheticCrashReportGenerator directory count [threads frames images exception]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: SyntheticCrashReportGenerator directory count [threads frames images exception]");
+            System.exit(1);
+        }
+
+        File directory = new File(args[0]);
+        int count = Integer.parseInt(args[1]);
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int frames = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+        int images = args.length > 4 ? Integer.parseInt(args[4]) : 250;
+        boolean exception = args.length > 5 && Boolean.parseBoolean(args[5]);
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+
+        SyntheticCrashReportGenerator generator = new SyntheticCrashReportGenerator(threads, frames, images, exception);
+        for (int i = 0; i < count; i++) {
+            generator.writeFile(directory, i);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import java.beans.ConstructorProperties;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Process wide timings and counters for report loading, rendering and fingerprinting.
+ *
+ * Metrics are only collected when the system property crashreporteranalyzer.metrics is "true" at startup.
+ * ENABLED is a constant, so with metrics off the JIT removes the instrumentation entirely.  When on, every
+ * update goes to a per-thread stripe of an AtomicLongArray without locking; reads add the stripes up.
+ *
+ * Phase latencies are kept in power of two histograms, so percentiles are accurate to within a factor of two.
+ * Call registerMBean() to publish the metrics through JMX, or poll snapshot().
+ */
+public final class AnalyzerMetrics implements AnalyzerMetricsMXBean {
+    public static final boolean ENABLED = Boolean.getBoolean("crashreporteranalyzer.metrics");
+
+    public static final String OBJECT_NAME = "com.wyntersoft.crashreporteranalyzer:type=AnalyzerMetrics";
+
+    public enum Phase {
+        HEADER_CHECK,
+        PARSE,
+        RENDER,
+        FINGERPRINT
+    }
+
+    private static final AnalyzerMetrics INSTANCE = new AnalyzerMetrics();
+
+    /* Longs between stripes, so two threads never update the same cache line */
+    private static final int COUNTER_STRIDE = 8;
+    /* Bucket i counts latencies of fewer than 2^i nanoseconds, and at least 2^(i - 1) */
+    private static final int BUCKETS = 65;
+    private static final int HISTOGRAM_STRIDE = BUCKETS + 1 + COUNTER_STRIDE;
+
+    private static final int REPORTS_PARSED = 0;
+    private static final int BYTES_READ = 1;
+    private static final int INVALID_HEADERS = 2;
+    private static final int PROTOBUF_FAILURES = 3;
+    private static final int COUNTERS = 4;
+
+    private final int stripeMask;
+    private final AtomicLongArray counters;
+    private final AtomicLongArray histograms[];
+
+    private AnalyzerMetrics() {
+        int stripes = Integer.highestOneBit(Math.min(64, Runtime.getRuntime().availableProcessors() * 2) * 2 - 1);
+        stripeMask = stripes - 1;
+        counters = new AtomicLongArray(stripes * COUNTERS * COUNTER_STRIDE);
+        histograms = new AtomicLongArray[Phase.values().length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new AtomicLongArray(stripes * HISTOGRAM_STRIDE);
+        }
+    }
+
+    public static AnalyzerMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server under OBJECT_NAME, if not already registered.
+     */
+    public static synchronized void registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!server.isRegistered(name)) {
+            server.registerMBean(INSTANCE, name);
+        }
+    }
+
+    /**
+     * Records a phase that started at startNanos, a System.nanoTime() value.  Callers check ENABLED first.
+     */
+    static void recordPhase(Phase phase, long startNanos) {
+        long nanos = Math.max(0, System.nanoTime() - startNanos);
+        AtomicLongArray histogram = INSTANCE.histograms[phase.ordinal()];
+        int base = INSTANCE.stripe() * HISTOGRAM_STRIDE;
+        histogram.incrementAndGet(base + 64 - Long.numberOfLeadingZeros(nanos));
+        histogram.addAndGet(base + BUCKETS, nanos);
+    }
+
+    static void reportParsed(long bytes) {
+        INSTANCE.add(REPORTS_PARSED, 1);
+        INSTANCE.add(BYTES_READ, bytes);
+    }
+
+    static void invalidHeader() {
+        INSTANCE.add(INVALID_HEADERS, 1);
+    }
+
+    static void protobufFailure() {
+        INSTANCE.add(PROTOBUF_FAILURES, 1);
+    }
+
+    private int stripe() {
+        return (int)Thread.currentThread().getId() & stripeMask;
+    }
+
+    private void add(int counter, long delta) {
+        counters.addAndGet((stripe() * COUNTERS + counter) * COUNTER_STRIDE, delta);
+    }
+
+    private long sum(int counter) {
+        long total = 0;
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            total += counters.get((stripe * COUNTERS + counter) * COUNTER_STRIDE);
+        }
+        return total;
+    }
+
+    public long getReportsParsed() {
+        return sum(REPORTS_PARSED);
+    }
+
+    public long getBytesRead() {
+        return sum(BYTES_READ);
+    }
+
+    public long getInvalidHeaders() {
+        return sum(INVALID_HEADERS);
+    }
+
+    public long getProtobufFailures() {
+        return sum(PROTOBUF_FAILURES);
+    }
+
+    public PhaseStatistics getHeaderCheck() {
+        return getPhase(Phase.HEADER_CHECK);
+    }
+
+    public PhaseStatistics getParse() {
+        return getPhase(Phase.PARSE);
+    }
+
+    public PhaseStatistics getRender() {
+        return getPhase(Phase.RENDER);
+    }
+
+    public PhaseStatistics getFingerPrint() {
+        return getPhase(Phase.FINGERPRINT);
+    }
+
+    public PhaseStatistics getPhase(Phase phase) {
+        AtomicLongArray histogram = histograms[phase.ordinal()];
+        long buckets[] = new long[BUCKETS];
+        long totalNanos = 0;
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            int base = stripe * HISTOGRAM_STRIDE;
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] += histogram.get(base + i);
+            }
+            totalNanos += histogram.get(base + BUCKETS);
+        }
+        return new PhaseStatistics(buckets, totalNanos);
+    }
+
+    /**
+     * Returns the current value of every metric.  Values are read without stopping updates, so a snapshot
+     * taken under load may be off by the few operations in progress.
+     */
+    public Snapshot snapshot() {
+        PhaseStatistics phases[] = new PhaseStatistics[Phase.values().length];
+        for (Phase phase : Phase.values()) {
+            phases[phase.ordinal()] = getPhase(phase);
+        }
+        return new Snapshot(getReportsParsed(), getBytesRead(), getInvalidHeaders(), getProtobufFailures(), phases);
+    }
+
+    public static class Snapshot {
+        private final long reportsParsed;
+        private final long bytesRead;
+        private final long invalidHeaders;
+        private final long protobufFailures;
+        private final PhaseStatistics phases[];
+
+        Snapshot(long reportsParsed, long bytesRead, long invalidHeaders, long protobufFailures,
+                 PhaseStatistics phases[]) {
+            this.reportsParsed = reportsParsed;
+            this.bytesRead = bytesRead;
+            this.invalidHeaders = invalidHeaders;
+            this.protobufFailures = protobufFailures;
+            this.phases = phases;
+        }
+
+        public long getReportsParsed() { return reportsParsed; }
+        public long getBytesRead() { return bytesRead; }
+        public long getInvalidHeaders() { return invalidHeaders; }
+        public long getProtobufFailures() { return protobufFailures; }
+        public PhaseStatistics getPhase(Phase phase) { return phases[phase.ordinal()]; }
+    }
+
+    /**
+     * Latency distribution of one phase.
+     */
+    public static class PhaseStatistics {
+        private final long count;
+        private final long totalNanos;
+        private final long p50Nanos;
+        private final long p99Nanos;
+        private final long maxNanos;
+
+        PhaseStatistics(long buckets[], long totalNanos) {
+            long count = 0;
+            for (long bucket : buckets) {
+                count += bucket;
+            }
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.p50Nanos = percentile(buckets, count, 0.50);
+            this.p99Nanos = percentile(buckets, count, 0.99);
+            this.maxNanos = percentile(buckets, count, 1.0);
+        }
+
+        @ConstructorProperties({ "count", "totalNanos", "p50Nanos", "p99Nanos", "maxNanos" })
+        public PhaseStatistics(long count, long totalNanos, long p50Nanos, long p99Nanos, long maxNanos) {
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() { return count; }
+        public long getTotalNanos() { return totalNanos; }
+        public long getMeanNanos() { return count == 0 ? 0 : totalNanos / count; }
+        /** Upper bound of the bucket holding the median */
+        public long getP50Nanos() { return p50Nanos; }
+        /** Upper bound of the bucket holding the 99th percentile */
+        public long getP99Nanos() { return p99Nanos; }
+        /** Upper bound of the highest non-empty bucket */
+        public long getMaxNanos() { return maxNanos; }
+
+        private static long percentile(long buckets[], long count, double fraction) {
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long)Math.ceil(count * fraction));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return i >= 63 ? Long.MAX_VALUE : (1L << i) - 1;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+/**
+ * JMX view of AnalyzerMetrics.
+ */
+public interface AnalyzerMetricsMXBean {
+    long getReportsParsed();
+
+    long getBytesRead();
+
+    long getInvalidHeaders();
+
+    long getProtobufFailures();
+
+    AnalyzerMetrics.PhaseStatistics getHeaderCheck();
+
+    AnalyzerMetrics.PhaseStatistics getParse();
+
+    AnalyzerMetrics.PhaseStatistics getRender();
+
+    AnalyzerMetrics.PhaseStatistics getFingerPrint();
+}
@@ -0,0 +1,132 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport.BinaryImage;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Address to binary image lookup table for a single crash report.
+ *
+ * Image ranges are kept in primitive arrays sorted by base address so a lookup is a binary search
+ * that does not allocate.  A range is [base, base + size), so zero-size images never match an address.
+ * When ranges overlap the image that appears first in the report wins, as it did with a linear scan.
+ */
+public final class BinaryImageIndex {
+    private final BinaryImage images[];
+    private final String names[];
+    private final long bases[];
+    private final long ends[];
+    private final long maxEnds[];
+    private final int order[];
+
+    public BinaryImageIndex(List<BinaryImage> imageList) {
+        this(imageList.toArray(new BinaryImage[imageList.size()]), null, null, null, imageList.size());
+    }
+
+    /**
+     * Builds an index from bare image ranges when no BinaryImage messages were decoded.
+     * getImage() returns null for an index built this way.
+     */
+    BinaryImageIndex(long baseAddresses[], long sizes[], String imageNames[], int count) {
+        this(null, baseAddresses, sizes, imageNames, count);
+    }
+
+    private BinaryImageIndex(BinaryImage imageList[], long baseAddresses[], long sizes[], String imageNames[], int count) {
+        final long unsortedBases[] = new long[count];
+        Integer sorted[] = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = i;
+            unsortedBases[i] = imageList != null ? imageList[i].getBaseAddress() : baseAddresses[i];
+        }
+
+        // Arrays.sort on objects is stable, so equal bases keep report order
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(unsortedBases[a], unsortedBases[b]);
+            }
+        });
+
+        images = imageList != null ? new BinaryImage[count] : null;
+        names = new String[count];
+        bases = new long[count];
+        ends = new long[count];
+        maxEnds = new long[count];
+        order = new int[count];
+
+        long maxEnd = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            int idx = sorted[i];
+            order[i] = idx;
+            bases[i] = unsortedBases[idx];
+            if (imageList != null) {
+                images[i] = imageList[idx];
+                names[i] = imageList[idx].getName();
+                ends[i] = bases[i] + imageList[idx].getSize();
+            } else {
+                names[i] = imageNames[idx];
+                ends[i] = bases[i] + sizes[idx];
+            }
+            maxEnd = Math.max(maxEnd, ends[i]);
+            maxEnds[i] = maxEnd;
+        }
+    }
+
+    public int size() {
+        return bases.length;
+    }
+
+    /**
+     * Returns the position, in base address order, of the image containing address or -1 if there is none.
+     */
+    public int indexOf(long address) {
+        int low = 0;
+        int high = bases.length - 1;
+
+        // Find the last image whose base is <= address
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (bases[mid] <= address) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        int found = -1;
+        for (int i = high; i >= 0 && maxEnds[i] > address; i--) {
+            if (address < ends[i] && (found == -1 || order[i] < order[found])) {
+                found = i;
+            }
+        }
+        return found;
+    }
+
+    public BinaryImage find(long address) {
+        int idx = indexOf(address);
+        return idx < 0 ? null : getImage(idx);
+    }
+
+    /**
+     * Returns the image at position idx in base address order.
+     */
+    public BinaryImage getImage(int idx) {
+        return images == null ? null : images[idx];
+    }
+
+    public String getName(int idx) {
+        return names[idx];
+    }
+
+    /**
+     * Returns the last path component of the image name, as shown in frames and fingerprints.
+     */
+    public String getShortName(int idx) {
+        return names[idx].substring(names[idx].lastIndexOf('/') + 1);
+    }
+
+    public long getBaseAddress(int idx) {
+        return bases[idx];
+    }
+}
@@ -0,0 +1,148 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport.BinaryImage;
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport.Processor.TypeEncoding;
+
+import com.google.protobuf.ByteString;
+
+import java.io.IOException;
+
+/**
+ * Display values derived from a binary image: the last path component of its name, the architecture name, the
+ * UUID and the text of its Binary Images line.  Instances are immutable, so one can be shared by every report
+ * that loads the same image through a BinaryImageInterner.
+ */
+public final class BinaryImageInfo {
+    private static final char HEX_DIGITS[] = "0123456789abcdef".toCharArray();
+
+    private final String shortName;
+    private final String archName;
+    private final String uuid;
+    private final String symbolUuid;
+    private final String addressRange;
+    private final String description;
+
+    /**
+     * lp64 selects the width of the address range, as for the report the image appears in.
+     */
+    public BinaryImageInfo(BinaryImage image, boolean lp64) {
+        String name = image.getName();
+        this.shortName = name.substring(name.lastIndexOf('/') + 1);
+        this.archName = getArchName(image);
+        this.uuid = image.hasUuid() ? formatUuid(image.getUuid()) : PlCrashReporterAnalyzer.unknownString;
+        this.symbolUuid = image.hasUuid() && image.getUuid().size() == 16 ? formatHex(image.getUuid()) : null;
+
+        /* Equivalent to "%#10x - %#10x", or "%#18x - %#18x" for 64-bit images */
+        StringBuilder sb = new StringBuilder();
+        int addressWidth = lp64 ? 18 : 10;
+        try {
+            ReportFormat.prefixedHex(sb, image.getBaseAddress(), addressWidth);
+            sb.append(" - ");
+            ReportFormat.prefixedHex(sb, image.getBaseAddress() + (Math.max(1, image.getSize()) - 1), addressWidth);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.addressRange = sb.toString();
+        this.description = shortName + ' ' + archName + "  <" + uuid + "> " + name + '\n';
+    }
+
+    public String getShortName() {
+        return shortName;
+    }
+
+    public String getArchName() {
+        return archName;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    /**
+     * The start and end addresses as shown at the beginning of the Binary Images line.
+     */
+    public String getAddressRange() {
+        return addressRange;
+    }
+
+    /**
+     * The rest of the Binary Images line after the main executable designator, newline included.
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * The full UUID as 32 lowercase hex digits, as used to name symbol files, or null if the image has none.
+     */
+    public String getSymbolUuid() {
+        return symbolUuid;
+    }
+
+    static String getArchName(BinaryImage image) {
+        if (!image.hasCodeType() || image.getCodeType().getEncoding() != TypeEncoding.TYPE_ENCODING_MACH) {
+            return PlCrashReporterAnalyzer.unknownString;
+        }
+
+        PlCrashReporterAnalyzer.CpuType type = PlCrashReporterAnalyzer.CpuType.valueOf((int)image.getCodeType().getType());
+        if (type == null) {
+            return PlCrashReporterAnalyzer.unknownString;
+        }
+
+        switch (type) {
+            case CPU_TYPE_ARM:
+                PlCrashReporterAnalyzer.CpuSubTypeArm subType =
+                        PlCrashReporterAnalyzer.CpuSubTypeArm.valueOf((int)image.getCodeType().getSubtype());
+                if (subType == null) {
+                    return "arm-unknown";
+                }
+                switch (subType) {
+                    case CPU_SUBTYPE_ARM_V6:
+                        return "armv6";
+                    case CPU_SUBTYPE_ARM_V7:
+                        return "armv7";
+                    case CPU_SUBTYPE_ARM_V7S:
+                        return "armv7s";
+                    default:
+                        return "arm-unknown";
+                }
+            case CPU_TYPE_X86:
+                return "i386";
+            case CPU_TYPE_X86_64:
+                return "x86_64";
+            case CPU_TYPE_POWERPC:
+                return "powerpc";
+
+            default:
+                return PlCrashReporterAnalyzer.unknownString;
+        }
+    }
+
+    /*
+     * Earlier versions built this through java.util.UUID, reading both halves from the start of the buffer, so the
+     * first eight bytes appear twice.  That is kept so that rendered reports do not change.
+     */
+    static String formatUuid(ByteString uuid) {
+        if (uuid.size() < 8 || uuid.size() > 16) {
+            return PlCrashReporterAnalyzer.unknownString;
+        }
+
+        char text[] = new char[32];
+        for (int i = 0; i < 8; i++) {
+            int b = uuid.byteAt(i) & 0xff;
+            text[i * 2] = text[16 + i * 2] = HEX_DIGITS[b >> 4];
+            text[i * 2 + 1] = text[16 + i * 2 + 1] = HEX_DIGITS[b & 0xf];
+        }
+        return new String(text);
+    }
+
+    static String formatHex(ByteString bytes) {
+        char text[] = new char[bytes.size() * 2];
+        for (int i = 0; i < bytes.size(); i++) {
+            int b = bytes.byteAt(i) & 0xff;
+            text[i * 2] = HEX_DIGITS[b >> 4];
+            text[i * 2 + 1] = HEX_DIGITS[b & 0xf];
+        }
+        return new String(text);
+    }
+}
@@ -0,0 +1,109 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport.BinaryImage;
+
+import com.google.protobuf.ByteString;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shares BinaryImageInfo instances between reports.
+ *
+ * Reports from one build of an application load the same system frameworks and main executable, so in a batch
+ * most images have been seen before.  Images are looked up by UUID and base address; the remaining fields that
+ * appear in the Binary Images line are compared too, so an image is only shared when it would render the same.
+ * Once maxSize distinct images are held new ones are no longer added, which bounds memory when the input is
+ * unusually varied.  Safe for use by many threads.
+ */
+public final class BinaryImageInterner {
+    private final ConcurrentMap<Key, BinaryImageInfo> images = new ConcurrentHashMap<Key, BinaryImageInfo>();
+    private final int maxSize;
+
+    public BinaryImageInterner() {
+        this(1 << 16);
+    }
+
+    public BinaryImageInterner(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.maxSize = maxSize;
+    }
+
+    public BinaryImageInfo intern(BinaryImage image, boolean lp64) {
+        Key key = new Key(image, lp64);
+        BinaryImageInfo info = images.get(key);
+        if (info != null) {
+            return info;
+        }
+
+        info = new BinaryImageInfo(image, lp64);
+        if (images.size() >= maxSize) {
+            return info;
+        }
+
+        BinaryImageInfo existing = images.putIfAbsent(key, info);
+        return existing != null ? existing : info;
+    }
+
+    public int size() {
+        return images.size();
+    }
+
+    public void clear() {
+        images.clear();
+    }
+
+    private static final class Key {
+        private final ByteString uuid;
+        private final long baseAddress;
+        private final long size;
+        private final String name;
+        private final int encoding;
+        private final long type;
+        private final long subtype;
+        private final boolean lp64;
+        private final int hash;
+
+        Key(BinaryImage image, boolean lp64) {
+            this.uuid = image.hasUuid() ? image.getUuid() : null;
+            this.baseAddress = image.getBaseAddress();
+            this.size = image.getSize();
+            this.name = image.getName();
+            if (image.hasCodeType()) {
+                this.encoding = image.getCodeType().getEncoding().getNumber();
+                this.type = image.getCodeType().getType();
+                this.subtype = image.getCodeType().getSubtype();
+            } else {
+                this.encoding = -1;
+                this.type = 0;
+                this.subtype = 0;
+            }
+            this.lp64 = lp64;
+            this.hash = 31 * (uuid != null ? uuid.hashCode() : 0) + (int)(baseAddress ^ (baseAddress >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)o;
+            return hash == other.hash
+                    && baseAddress == other.baseAddress
+                    && size == other.size
+                    && encoding == other.encoding
+                    && type == other.type
+                    && subtype == other.subtype
+                    && lp64 == other.lp64
+                    && (uuid == null ? other.uuid == null : uuid.equals(other.uuid))
+                    && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads records written by BinarySummaryWriter one at a time.
+ *
+ * next() loads a record body into a reused buffer; the fixed fields are read from it directly and the strings and
+ * frames only when asked for, so scanning a stream for records of interest decodes very little.
+ */
+public class BinarySummaryReader {
+    private static final int FIXED_SIZE = 40;
+
+    private final DataInputStream in;
+    private byte body[] = new byte[8192];
+    private ByteBuffer record;
+    private int framesOffset;
+    /* Offsets of each register and image in the current record, found on first use */
+    private int registerOffsets[];
+    private int imageOffsets[];
+
+    public BinarySummaryReader(InputStream in) {
+        this.in = new DataInputStream(in);
+    }
+
+    /**
+     * Moves to the next record, returning false at the end of the stream.
+     */
+    public boolean next() throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            record = null;
+            return false;
+        }
+
+        if (length < FIXED_SIZE) {
+            throw new IOException("Corrupt summary record");
+        }
+        if (length > body.length) {
+            body = Arrays.copyOf(body, Math.max(length, body.length * 2));
+        }
+        in.readFully(body, 0, length);
+
+        record = ByteBuffer.wrap(body, 0, length);
+        framesOffset = -1;
+        registerOffsets = null;
+        imageOffsets = null;
+        if (getVersion() != BinarySummaryWriter.VERSION) {
+            throw new IOException("Unsupported summary version " + getVersion());
+        }
+        return true;
+    }
+
+    public int getVersion() {
+        return record.get(0);
+    }
+
+    public boolean hasException() {
+        return (record.get(1) & BinarySummaryWriter.FLAG_EXCEPTION) != 0;
+    }
+
+    public boolean hasCrashedThread() {
+        return (record.get(1) & BinarySummaryWriter.FLAG_CRASHED_THREAD) != 0;
+    }
+
+    public int getFrameCount() {
+        return record.getShort(2) & 0xffff;
+    }
+
+    public int getCrashedThreadNumber() {
+        return record.getInt(4);
+    }
+
+    public long getTimestamp() {
+        return record.getLong(8);
+    }
+
+    public long getSignalAddress() {
+        return record.getLong(16);
+    }
+
+    public int getProcessId() {
+        return record.getInt(24);
+    }
+
+    public int getParentProcessId() {
+        return record.getInt(28);
+    }
+
+    public int getImageCount() {
+        return record.getInt(32);
+    }
+
+    /**
+     * Returns one of the strings indexed by the BinarySummaryWriter constants, or null if the report had none.
+     */
+    public String getString(int idx) {
+        checkIndex(idx, record.getInt(36));
+        int offset = FIXED_SIZE;
+        for (int i = 0; i < idx; i++) {
+            offset = skipString(offset);
+        }
+        return readString(offset);
+    }
+
+    public long getFramePc(int idx) {
+        checkIndex(idx, getFrameCount());
+        return record.getLong(frameOffset(idx));
+    }
+
+    /**
+     * Position of the frame's image in the images section, or -1 if the frame is outside every image.
+     */
+    public int getFrameImage(int idx) {
+        checkIndex(idx, getFrameCount());
+        return record.getInt(frameOffset(idx) + 8);
+    }
+
+    public long getFrameOffset(int idx) {
+        checkIndex(idx, getFrameCount());
+        return record.getLong(frameOffset(idx) + 12);
+    }
+
+    /**
+     * Number of registers of the crashed thread, 0 if no thread crashed.
+     */
+    public int getRegisterCount() {
+        return registerOffsets().length;
+    }
+
+    public String getRegisterName(int idx) {
+        checkIndex(idx, getRegisterCount());
+        return readString(registerOffsets[idx]);
+    }
+
+    public long getRegisterValue(int idx) {
+        checkIndex(idx, getRegisterCount());
+        return record.getLong(skipString(registerOffsets[idx]));
+    }
+
+    /**
+     * Images are in base address order, the positions getFrameImage() returns.
+     */
+    public long getImageBaseAddress(int idx) {
+        return record.getLong(imageOffset(idx));
+    }
+
+    public long getImageSize(int idx) {
+        return record.getLong(imageOffset(idx) + 8);
+    }
+
+    /** Full path of the image */
+    public String getImageName(int idx) {
+        return readString(imageOffset(idx) + 16);
+    }
+
+    /** Architecture as shown in the Binary Images section, e.g. armv7 */
+    public String getImageArch(int idx) {
+        return readString(skipString(imageOffset(idx) + 16));
+    }
+
+    /** UUID as 32 lowercase hex digits, as used to name symbol tables, or null if the image has none */
+    public String getImageUuid(int idx) {
+        return readString(skipString(skipString(imageOffset(idx) + 16)));
+    }
+
+    private static void checkIndex(int idx, int count) {
+        if (idx < 0 || idx >= count) {
+            throw new IndexOutOfBoundsException("Index " + idx + " of " + count);
+        }
+    }
+
+    private int[] registerOffsets() {
+        if (registerOffsets == null) {
+            int offset = frameOffset(getFrameCount());
+            int offsets[] = new int[record.getInt(offset)];
+            offset += 4;
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = offset;
+                offset = skipString(offset) + 8;
+            }
+            registerOffsets = offsets;
+        }
+        return registerOffsets;
+    }
+
+    private int imageOffset(int idx) {
+        if (imageOffsets == null) {
+            int registers[] = registerOffsets();
+            int offset = registers.length == 0 ? frameOffset(getFrameCount()) + 4
+                                               : skipString(registers[registers.length - 1]) + 8;
+            int offsets[] = new int[getImageCount()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = offset;
+                offset = skipString(skipString(skipString(offset + 16)));
+            }
+            imageOffsets = offsets;
+        }
+        checkIndex(idx, imageOffsets.length);
+        return imageOffsets[idx];
+    }
+
+    private int frameOffset(int idx) {
+        if (framesOffset < 0) {
+            int offset = FIXED_SIZE;
+            for (int i = record.getInt(36); i > 0; i--) {
+                offset = skipString(offset);
+            }
+            framesOffset = offset;
+        }
+        return framesOffset + idx * 20;
+    }
+
+    private int skipString(int offset) {
+        return offset + 4 + Math.max(0, record.getInt(offset));
+    }
+
+    private String readString(int offset) {
+        int length = record.getInt(offset);
+        return length < 0 ? null : new String(body, offset + 4, length, BinarySummaryWriter.UTF8);
+    }
+}
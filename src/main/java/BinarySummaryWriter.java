@@ -0,0 +1,135 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport;
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport.Thread;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Writes report summaries as length-prefixed binary records that can be concatenated into one stream and read
+ * back with BinarySummaryReader.  All values are big-endian:
+ *
+ *   int bodyLength
+ *   byte version | byte flags | short frameCount | int crashedThreadNumber
+ *   long timestamp | long signalAddress | int processId | int parentProcessId
+ *   int imageCount | int stringCount | string[stringCount]
+ *   frames:    long pc | int imageIdx | long offset
+ *   int registerCount, registers: string name | long value
+ *   images:    long base | long size | string name | string arch | string uuid
+ *
+ * A string is an int byte length, -1 for none, followed by UTF-8.  The fixed fields come first so a reader can
+ * filter records on them and skip to the next record without decoding the rest.  imageIdx is the position of the
+ * frame's image in the images section, which is in base address order, or -1.
+ *
+ * Instances reuse an internal buffer and must not be shared between threads.
+ */
+public class BinarySummaryWriter {
+    public static final int VERSION = 1;
+
+    public static final int FLAG_EXCEPTION = 0x1;
+    public static final int FLAG_CRASHED_THREAD = 0x2;
+
+    /* Indexes of the strings following the fixed fields */
+    public static final int PROCESS_NAME = 0;
+    public static final int PROCESS_PATH = 1;
+    public static final int PARENT_PROCESS_NAME = 2;
+    public static final int IDENTIFIER = 3;
+    public static final int APP_VERSION = 4;
+    public static final int OPERATING_SYSTEM = 5;
+    public static final int OS_VERSION = 6;
+    public static final int OS_BUILD = 7;
+    public static final int HARDWARE_MODEL = 8;
+    public static final int CODE_TYPE = 9;
+    public static final int SIGNAL_NAME = 10;
+    public static final int SIGNAL_CODE = 11;
+    public static final int EXCEPTION_NAME = 12;
+    public static final int EXCEPTION_REASON = 13;
+    static final int STRING_COUNT = 14;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+    private final DataOutputStream body = new DataOutputStream(buffer);
+
+    public void write(PlCrashReporterAnalyzer analyzer, OutputStream out) throws IOException {
+        buffer.reset();
+
+        CrashReport report = analyzer.getReport();
+        CrashReport.ProcessInfo process = report.getProcessInfo();
+        CrashReport.SystemInfo system = report.getSystemInfo();
+        Thread crashed = analyzer.getCrashedThread();
+        BinaryImageIndex images = analyzer.getImageIndex();
+
+        int frameCount = crashed != null ? Math.min(crashed.getFramesCount(), 0xffff) : 0;
+
+        body.writeByte(VERSION);
+        body.writeByte((report.hasException() ? FLAG_EXCEPTION : 0) | (crashed != null ? FLAG_CRASHED_THREAD : 0));
+        body.writeShort(frameCount);
+        body.writeInt(crashed != null ? crashed.getThreadNumber() : -1);
+        body.writeLong(system.getTimestamp());
+        body.writeLong(report.getSignal().getAddress());
+        body.writeInt(report.hasProcessInfo() ? process.getProcessId() : -1);
+        body.writeInt(report.hasProcessInfo() ? process.getParentProcessId() : -1);
+        body.writeInt(images.size());
+
+        body.writeInt(STRING_COUNT);
+        writeString(report.hasProcessInfo() ? process.getProcessName() : null);
+        writeString(process.hasProcessPath() ? process.getProcessPath() : null);
+        writeString(report.hasProcessInfo() ? process.getParentProcessName() : null);
+        writeString(report.getApplicationInfo().getIdentifier());
+        writeString(report.getApplicationInfo().getVersion());
+        writeString(analyzer.getOperatingSystem());
+        writeString(system.getOsVersion());
+        writeString(system.hasOsBuild() ? system.getOsBuild() : null);
+        writeString(analyzer.getHardwareModel());
+        writeString(analyzer.getCodeType());
+        writeString(report.getSignal().getName());
+        writeString(report.getSignal().getCode());
+        writeString(report.hasException() ? report.getException().getName() : null);
+        writeString(report.hasException() ? report.getException().getReason() : null);
+
+        for (int i = 0; i < frameCount; i++) {
+            long pc = crashed.getFrames(i).getPc();
+            int imageIdx = images.indexOf(pc);
+            body.writeLong(pc);
+            body.writeInt(imageIdx);
+            body.writeLong(imageIdx >= 0 ? pc - images.getBaseAddress(imageIdx) : 0);
+        }
+
+        body.writeInt(crashed != null ? crashed.getRegistersCount() : 0);
+        if (crashed != null) {
+            for (Thread.RegisterValue register : crashed.getRegistersList()) {
+                writeString(register.getName());
+                body.writeLong(register.getValue());
+            }
+        }
+
+        for (int i = 0; i < images.size(); i++) {
+            BinaryImageInfo info = analyzer.getImageInfo(i);
+            body.writeLong(images.getBaseAddress(i));
+            body.writeLong(images.getImage(i).getSize());
+            writeString(images.getName(i));
+            writeString(info.getArchName());
+            writeString(info.getSymbolUuid());
+        }
+
+        body.flush();
+        DataOutputStream record = new DataOutputStream(out);
+        record.writeInt(buffer.size());
+        buffer.writeTo(out);
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            body.writeInt(-1);
+            return;
+        }
+        byte bytes[] = value.getBytes(UTF8);
+        body.writeInt(bytes.length);
+        body.write(bytes);
+    }
+}
@@ -0,0 +1,442 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Raw .plcrash payloads packed into large segment files, with random access by report id and fingerprint.
+ *
+ * Reports are appended to segment-NNNNN.pack until it reaches maxSegmentBytes, then a new segment is started.
+ * Each payload is stored on its own, deflated if compression is on and that makes it smaller.  The sidecar
+ * segment-NNNNN.idx holds one fixed-size entry per payload with its offset, lengths, flags and fingerprint; report
+ * ids number the entries of all segments in order.  Entries are written after their payload, so on open a
+ * segment is only trusted up to its last complete entry and anything after it in the pack file is truncated away.
+ *
+ * The whole index is held in memory.  read() returns a slice of the memory-mapped segment for stored payloads, so
+ * reading a report costs one seek; reading reports in id order reads the segments sequentially.  Methods are
+ * thread safe.
+ */
+public class CrashArchive implements Closeable {
+    public static final String PACK_EXTENSION = ".pack";
+    public static final String INDEX_EXTENSION = ".idx";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int PACK_MAGIC = 0x706c706b; /* "plpk" */
+    private static final int INDEX_MAGIC = 0x706c7069; /* "plpi" */
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+
+    private static final int ENTRY_SIZE = 80;
+    private static final int ENTRY_OFFSET = 0;
+    private static final int ENTRY_STORED_LENGTH = 8;
+    private static final int ENTRY_RAW_LENGTH = 12;
+    private static final int ENTRY_FLAGS = 16;
+    private static final int ENTRY_KEY_LENGTH = 20;
+    private static final int ENTRY_KEY = 24;
+    private static final int MAX_KEY_LENGTH = ENTRY_SIZE - ENTRY_KEY;
+
+    private static final int FLAG_DEFLATED = 1;
+
+    private final File directory;
+    private final long maxSegmentBytes;
+    private final boolean compress;
+
+    private final List<Segment> segments = new ArrayList<Segment>();
+
+    /* Per report id */
+    private int segmentIds[] = new int[1024];
+    private long offsets[] = new long[1024];
+    private int storedLengths[] = new int[1024];
+    private int rawLengths[] = new int[1024];
+    private byte flags[] = new byte[1024];
+    private String fingerPrints[] = new String[1024];
+    private int size;
+
+    private final Map<String, int[]> idsByFingerPrint = new HashMap<String, int[]>();
+
+    public CrashArchive(File directory) throws IOException {
+        this(directory, 1L << 30, false);
+    }
+
+    /**
+     * @param maxSegmentBytes size after which a new segment is started, at most 2GB so segments can be mapped
+     * @param compress whether to deflate new payloads
+     */
+    public CrashArchive(File directory, long maxSegmentBytes, boolean compress) throws IOException {
+        if (maxSegmentBytes <= FILE_HEADER_SIZE || maxSegmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("maxSegmentBytes must be above 8 and at most 2GB");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.compress = compress;
+
+        try {
+            recover();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Appends the report in the file at path, fingerprinted with the SHA-1 fingerprint, and returns its id.
+     */
+    public int append(String path) throws IOException {
+        ByteBuffer buffer = PlCrashReporterAnalyzer.readFile(path, false);
+        String fingerPrint = CrashFingerPrintView.parse(buffer.duplicate()).getCrashFingerPrint();
+        return append(buffer, fingerPrint);
+    }
+
+    /**
+     * Appends the remaining bytes of report, which are not checked, and returns its id.  A report that does not fit
+     * in an empty segment is rejected with an IllegalArgumentException.
+     */
+    public int append(ByteBuffer report, String fingerPrint) throws IOException {
+        byte key[] = fingerPrint.getBytes(UTF8);
+        if (key.length > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Fingerprint must be at most " + MAX_KEY_LENGTH + " bytes");
+        }
+
+        ByteBuffer payload = report.duplicate();
+        int rawLength = payload.remaining();
+        int entryFlags = 0;
+        if (compress) {
+            ByteBuffer deflated = deflate(payload.duplicate());
+            if (deflated != null) {
+                payload = deflated;
+                entryFlags |= FLAG_DEFLATED;
+            }
+        }
+        int storedLength = payload.remaining();
+        if (storedLength > maxSegmentBytes - FILE_HEADER_SIZE) {
+            throw new IllegalArgumentException("Report of " + storedLength + " bytes does not fit in a segment of "
+                    + maxSegmentBytes + " bytes");
+        }
+
+        synchronized (this) {
+            Segment segment = segments.get(segments.size() - 1);
+            if (segment.packSize > FILE_HEADER_SIZE && segment.packSize + storedLength > maxSegmentBytes) {
+                segment = createSegment(segments.size());
+                segments.add(segment);
+            }
+
+            // packSize only moves past the payload once its entry is written, so a failed append is overwritten
+            long offset = segment.packSize;
+            writeFully(segment.pack, payload, offset);
+
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+            entry.putLong(ENTRY_OFFSET, offset);
+            entry.putInt(ENTRY_STORED_LENGTH, storedLength);
+            entry.putInt(ENTRY_RAW_LENGTH, rawLength);
+            entry.putInt(ENTRY_FLAGS, entryFlags);
+            entry.putInt(ENTRY_KEY_LENGTH, key.length);
+            entry.position(ENTRY_KEY);
+            entry.put(key);
+            entry.clear();
+            writeFully(segment.index, entry, FILE_HEADER_SIZE + (long)segment.entries * ENTRY_SIZE);
+            segment.packSize += storedLength;
+            segment.entries++;
+
+            return add(segments.size() - 1, offset, storedLength, rawLength, entryFlags, fingerPrint);
+        }
+    }
+
+    /**
+     * Returns the report with the given id.  Stored payloads are a read-only slice of the mapped segment.
+     */
+    public ByteBuffer read(int id) throws IOException {
+        ByteBuffer stored;
+        int rawLength;
+        boolean deflated;
+        synchronized (this) {
+            if (id < 0 || id >= size) {
+                throw new IndexOutOfBoundsException("No report " + id);
+            }
+            stored = segments.get(segmentIds[id]).map(offsets[id], storedLengths[id]);
+            rawLength = rawLengths[id];
+            deflated = (flags[id] & FLAG_DEFLATED) != 0;
+        }
+        return deflated ? inflate(stored, rawLength) : stored;
+    }
+
+    public PlCrashReporterAnalyzer open(int id) throws IOException {
+        return new PlCrashReporterAnalyzer(read(id));
+    }
+
+    /**
+     * Returns the ids of every report appended with fingerPrint, in the order they were appended.
+     */
+    public synchronized int[] getReportIds(String fingerPrint) {
+        int ids[] = idsByFingerPrint.get(fingerPrint);
+        return ids == null ? new int[0] : Arrays.copyOfRange(ids, 1, ids[0] + 1);
+    }
+
+    public synchronized String getFingerPrint(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("No report " + id);
+        }
+        return fingerPrints[id];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Forces appended payloads and their index entries to disk.
+     */
+    public synchronized void flush() throws IOException {
+        for (Segment segment : segments) {
+            segment.pack.force(false);
+            segment.index.force(false);
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+        for (Segment segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        segments.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private int add(int segmentId, long offset, int storedLength, int rawLength, int entryFlags, String fingerPrint) {
+        if (size == offsets.length) {
+            int capacity = size * 2;
+            segmentIds = Arrays.copyOf(segmentIds, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            storedLengths = Arrays.copyOf(storedLengths, capacity);
+            rawLengths = Arrays.copyOf(rawLengths, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            fingerPrints = Arrays.copyOf(fingerPrints, capacity);
+        }
+
+        // Id lists hold their length in the first element
+        int ids[] = idsByFingerPrint.get(fingerPrint);
+        if (ids == null) {
+            ids = new int[4];
+        } else {
+            fingerPrint = fingerPrints[ids[1]];
+            if (ids[0] + 1 == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length * 2);
+            }
+        }
+        ids[++ids[0]] = size;
+        idsByFingerPrint.put(fingerPrint, ids);
+
+        int id = size++;
+        segmentIds[id] = segmentId;
+        offsets[id] = offset;
+        storedLengths[id] = storedLength;
+        rawLengths[id] = rawLength;
+        flags[id] = (byte)entryFlags;
+        fingerPrints[id] = fingerPrint;
+        return id;
+    }
+
+    private void recover() throws IOException {
+        for (int n = 0; ; n++) {
+            File packFile = file(n, PACK_EXTENSION);
+            if (!packFile.isFile()) {
+                if (n == 0) {
+                    segments.add(createSegment(0));
+                }
+                return;
+            }
+
+            Segment segment = new Segment(packFile, file(n, INDEX_EXTENSION));
+            segments.add(segment);
+            // A crash while creating the segment can leave either file without its header
+            if (segment.pack.size() < FILE_HEADER_SIZE) {
+                writeHeader(segment.pack, PACK_MAGIC);
+            }
+            if (segment.index.size() < FILE_HEADER_SIZE) {
+                writeHeader(segment.index, INDEX_MAGIC);
+            }
+            if (!checkHeader(segment.pack, PACK_MAGIC) || !checkHeader(segment.index, INDEX_MAGIC)) {
+                throw new IOException(packFile + " is not a crash archive segment");
+            }
+
+            long packSize = segment.pack.size();
+            long entryCount = (segment.index.size() - FILE_HEADER_SIZE) / ENTRY_SIZE;
+            long end = FILE_HEADER_SIZE;
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+            for (int i = 0; i < entryCount; i++) {
+                entry.clear();
+                if (!readFully(segment.index, entry, FILE_HEADER_SIZE + (long)i * ENTRY_SIZE)) {
+                    break;
+                }
+                long offset = entry.getLong(ENTRY_OFFSET);
+                int storedLength = entry.getInt(ENTRY_STORED_LENGTH);
+                int keyLength = entry.getInt(ENTRY_KEY_LENGTH);
+                if (offset != end || storedLength < 0 || offset + storedLength > packSize
+                        || keyLength < 0 || keyLength > MAX_KEY_LENGTH) {
+                    // Payload or entry torn by a crash while appending
+                    break;
+                }
+
+                add(n, offset, storedLength, entry.getInt(ENTRY_RAW_LENGTH), entry.getInt(ENTRY_FLAGS),
+                        new String(entry.array(), ENTRY_KEY, keyLength, UTF8));
+                end = offset + storedLength;
+                segment.entries++;
+            }
+
+            segment.index.truncate(FILE_HEADER_SIZE + (long)segment.entries * ENTRY_SIZE);
+            segment.pack.truncate(end);
+            segment.packSize = end;
+        }
+    }
+
+    private File file(int segment, String extension) {
+        return new File(directory, String.format("segment-%05d%s", segment, extension));
+    }
+
+    private Segment createSegment(int n) throws IOException {
+        Segment segment = new Segment(file(n, PACK_EXTENSION), file(n, INDEX_EXTENSION));
+        writeHeader(segment.pack, PACK_MAGIC);
+        writeHeader(segment.index, INDEX_MAGIC);
+        segment.packSize = FILE_HEADER_SIZE;
+        return segment;
+    }
+
+    private static void writeHeader(FileChannel channel, int magic) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        header.putInt(magic).putInt(VERSION).flip();
+        channel.truncate(0);
+        writeFully(channel, header, 0);
+    }
+
+    private static boolean checkHeader(FileChannel channel, int magic) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+        return readFully(channel, header, 0) && header.getInt(0) == magic && header.getInt(4) == VERSION;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                return false;
+            }
+            position += n;
+        }
+        return true;
+    }
+
+    /* Deflated copy of buffer, or null if deflating does not make it smaller */
+    private static ByteBuffer deflate(ByteBuffer buffer) {
+        byte input[] = new byte[buffer.remaining()];
+        buffer.get(input);
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            byte output[] = new byte[input.length];
+            int length = 0;
+            while (!deflater.finished() && length < output.length) {
+                length += deflater.deflate(output, length, output.length - length);
+            }
+            return deflater.finished() && length < input.length ? ByteBuffer.wrap(output, 0, length) : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static ByteBuffer inflate(ByteBuffer buffer, int rawLength) throws IOException {
+        byte input[] = new byte[buffer.remaining()];
+        buffer.get(input);
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            byte output[] = new byte[rawLength];
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(output, length, rawLength - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != rawLength) {
+                throw new IOException("Truncated compressed report");
+            }
+            return ByteBuffer.wrap(output);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed report", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static final class Segment {
+        final FileChannel pack;
+        final FileChannel index;
+        long packSize;
+        int entries;
+        MappedByteBuffer mapped;
+
+        Segment(File packFile, File indexFile) throws IOException {
+            pack = new RandomAccessFile(packFile, "rw").getChannel();
+            try {
+                index = new RandomAccessFile(indexFile, "rw").getChannel();
+            } catch (IOException e) {
+                pack.close();
+                throw e;
+            }
+        }
+
+        /* Remaps the segment when it has grown past the current mapping */
+        ByteBuffer map(long offset, int length) throws IOException {
+            if (mapped == null || offset + length > mapped.capacity()) {
+                mapped = pack.map(FileChannel.MapMode.READ_ONLY, 0, packSize);
+            }
+            ByteBuffer slice = mapped.duplicate();
+            slice.limit((int)offset + length).position((int)offset);
+            return slice.slice();
+        }
+
+        void close() throws IOException {
+            try {
+                pack.close();
+            } finally {
+                index.close();
+            }
+        }
+    }
+}
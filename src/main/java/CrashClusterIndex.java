@@ -0,0 +1,413 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport.Thread;
+
+import java.util.Arrays;
+
+/**
+ * Groups crashes whose crashed thread stacks are similar, where the exact fingerprint would put them in different
+ * buckets because a frame moved, was inlined or the stack got deeper.
+ *
+ * Each report is reduced to the set of (image short name, pc offset) pairs of the top frames of its crashed
+ * thread and that set to a MinHash signature, whose entries agree between two reports in proportion to the
+ * Jaccard similarity of their frame sets.  Signatures are split into bands and hashed per band (locality
+ * sensitive hashing), so only reports that share a whole band with a new report are compared with it.  Reports
+ * at or above the similarity threshold are joined into one cluster with a union-find.
+ *
+ * Reports with a signature already in the index are only counted against it, so memory grows with the number of
+ * distinct signatures rather than the number of reports.  Everything is held in primitive arrays: with the default
+ * 64 hashes a signature takes about 600 bytes including its band and lookup entries.  Methods are synchronized.
+ */
+public class CrashClusterIndex {
+    /* Candidates compared per band, so a band shared by very many signatures does not make insertion linear */
+    private static final int MAX_CANDIDATES_PER_BAND = 32;
+    /* Candidates already in the matched cluster after which the rest of a band is assumed to be too */
+    private static final int MAX_CLUSTER_HITS_PER_BAND = 4;
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+
+    private final int numHashes;
+    private final int bands;
+    private final int rows;
+    private final int maxFrames;
+    private final double threshold;
+    private final long hashSeeds[];
+
+    private int size;
+    private long reports;
+    private int clusters;
+    private int signatures[] = new int[0];
+    private int parent[] = new int[0];
+    private int counts[] = new int[0];
+    private int visited[] = new int[0];
+    private int visitStamp;
+
+    /* Per band open addressing table from band hash to the newest signature in the band bucket */
+    private long bandKeys[][];
+    private int bandHeads[][];
+    private int bandNext[][];
+    private int bandUsed[];
+
+    /* Open addressing table from the hash of a whole signature to its id, for reports seen before */
+    private long exactKeys[] = new long[16];
+    private int exactIds[] = filled(16);
+    private int exactUsed;
+
+    public CrashClusterIndex() {
+        this(0.6, 64, 16);
+    }
+
+    /**
+     * @param threshold Jaccard similarity of frame sets at which reports are clustered together
+     * @param numHashes signature length; longer signatures estimate similarity more accurately but use more memory
+     * @param maxFrames number of crashed thread frames, from the top, in a report's frame set
+     */
+    public CrashClusterIndex(double threshold, int numHashes, int maxFrames) {
+        if (threshold <= 0 || threshold > 1 || numHashes < 1 || maxFrames < 1) {
+            throw new IllegalArgumentException("Need 0 < threshold <= 1 and positive numHashes and maxFrames");
+        }
+        this.threshold = threshold;
+        this.numHashes = numHashes;
+        this.maxFrames = maxFrames;
+
+        // The probability that two sets share a band rises steeply around (1 / bands) ^ (1 / rows); pick the
+        // split of the signature that puts that point closest to the threshold
+        int bestRows = 1;
+        double bestError = Double.MAX_VALUE;
+        for (int r = 1; r <= numHashes; r++) {
+            if (numHashes % r != 0) {
+                continue;
+            }
+            double error = Math.abs(Math.pow(1.0 / (numHashes / r), 1.0 / r) - threshold);
+            if (error < bestError) {
+                bestError = error;
+                bestRows = r;
+            }
+        }
+        this.rows = bestRows;
+        this.bands = numHashes / bestRows;
+
+        hashSeeds = new long[numHashes];
+        long seed = SEED;
+        for (int i = 0; i < numHashes; i++) {
+            seed = mix(seed + SEED);
+            hashSeeds[i] = seed;
+        }
+
+        bandKeys = new long[bands][16];
+        bandHeads = new int[bands][16];
+        bandNext = new int[bands][0];
+        bandUsed = new int[bands];
+        for (int b = 0; b < bands; b++) {
+            Arrays.fill(bandHeads[b], -1);
+        }
+    }
+
+    public int getBands() {
+        return bands;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Adds a report and returns the id of its signature, to be passed to getCluster().
+     */
+    public int add(PlCrashReporterAnalyzer analyzer) {
+        Thread thread = analyzer.getCrashedThread();
+        if (thread == null) {
+            // No stack to compare, so only reports with the same signal and exception go together
+            long feature = mix(analyzer.getSignalString().hashCode() * SEED + analyzer.getExceptionString().hashCode());
+            return add(new long[] { feature }, 1);
+        }
+
+        BinaryImageIndex images = analyzer.getImageIndex();
+        int count = Math.min(thread.getFramesCount(), maxFrames);
+        long features[] = new long[count];
+        for (int i = 0; i < count; i++) {
+            long pc = thread.getFrames(i).getPc();
+            int idx = images.indexOf(pc);
+            features[i] = idx < 0 ? frameFeature(0, pc) :
+                    frameFeature(shortNameHash(images.getName(idx)), pc - images.getBaseAddress(idx));
+        }
+        return add(features, count);
+    }
+
+    /**
+     * Adds a report given as frame features, which are usually frameFeature() values, and returns the id of its
+     * signature.
+     */
+    public synchronized int add(long features[], int count) {
+        int signature[] = new int[numHashes];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        for (int i = 0; i < count; i++) {
+            for (int h = 0; h < numHashes; h++) {
+                int value = (int)(mix(features[i] ^ hashSeeds[h]) >>> 33);
+                if (value < signature[h]) {
+                    signature[h] = value;
+                }
+            }
+        }
+
+        reports++;
+        long bandHashes[] = new long[bands];
+        long signatureHash = 0;
+        for (int b = 0; b < bands; b++) {
+            long hash = b;
+            for (int r = 0; r < rows; r++) {
+                hash = mix(hash * SEED + signature[b * rows + r]);
+            }
+            bandHashes[b] = hash;
+            signatureHash = mix(signatureHash + hash);
+        }
+
+        int exactSlot = exactSlot(signatureHash, signature);
+        if (exactIds[exactSlot] >= 0) {
+            counts[exactIds[exactSlot]]++;
+            return exactIds[exactSlot];
+        }
+
+        // Compare against signatures sharing a band, joining the clusters of those similar enough
+        if (++visitStamp == 0) {
+            Arrays.fill(visited, 0);
+            visitStamp = 1;
+        }
+        int cluster = -1;
+        for (int b = 0; b < bands; b++) {
+            int checked = 0;
+            int clusterHits = 0;
+            for (int id = bandHeads[b][slot(b, bandHashes[b])];
+                 id >= 0 && checked < MAX_CANDIDATES_PER_BAND && clusterHits < MAX_CLUSTER_HITS_PER_BAND;
+                 id = bandNext[b][id]) {
+                if (visited[id] == visitStamp) {
+                    continue;
+                }
+                visited[id] = visitStamp;
+                checked++;
+
+                // Nothing to learn from signatures already in the cluster found so far
+                if (cluster >= 0 && find(id) == cluster) {
+                    clusterHits++;
+                    continue;
+                }
+                if (matches(signature, id) >= threshold * numHashes) {
+                    cluster = cluster < 0 ? find(id) : union(cluster, id);
+                }
+            }
+        }
+
+        int id = append(signature);
+        counts[id] = 1;
+        clusters++;
+        if (cluster >= 0) {
+            union(cluster, id);
+        }
+        for (int b = 0; b < bands; b++) {
+            insertBand(b, bandHashes[b], id);
+        }
+
+        exactKeys[exactSlot] = signatureHash;
+        exactIds[exactSlot] = id;
+        if (++exactUsed * 4 > exactKeys.length * 3) {
+            rehashExact();
+        }
+        return id;
+    }
+
+    /**
+     * Returns the cluster the signature id currently belongs to.  Cluster ids are signature ids and change when
+     * clusters are joined, so look them up again after adding reports.
+     */
+    public synchronized int getCluster(int id) {
+        return find(id);
+    }
+
+    /**
+     * Number of reports added with exactly the signature id.
+     */
+    public synchronized int getCount(int id) {
+        return counts[id];
+    }
+
+    /**
+     * Number of reports in the cluster of the signature id.  This walks every signature.
+     */
+    public synchronized long getClusterReportCount(int id) {
+        int root = find(id);
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            if (find(i) == root) {
+                total += counts[i];
+            }
+        }
+        return total;
+    }
+
+    public synchronized int getSignatureCount() {
+        return size;
+    }
+
+    public synchronized long getReportCount() {
+        return reports;
+    }
+
+    public synchronized int getClusterCount() {
+        return clusters;
+    }
+
+    /**
+     * Estimated Jaccard similarity of the frame sets of two signatures.
+     */
+    public synchronized double similarity(int a, int b) {
+        int same = 0;
+        for (int h = 0; h < numHashes; h++) {
+            if (signatures[a * numHashes + h] == signatures[b * numHashes + h]) {
+                same++;
+            }
+        }
+        return (double)same / numHashes;
+    }
+
+    public static long frameFeature(int imageNameHash, long offset) {
+        return mix(imageNameHash * SEED + offset);
+    }
+
+    /**
+     * Same as the String hashCode() of the last path component of path, without creating it.
+     */
+    public static int shortNameHash(String path) {
+        int hash = 0;
+        for (int i = path.lastIndexOf('/') + 1; i < path.length(); i++) {
+            hash = 31 * hash + path.charAt(i);
+        }
+        return hash;
+    }
+
+    private int matches(int signature[], int id) {
+        int same = 0;
+        int offset = id * numHashes;
+        for (int h = 0; h < numHashes; h++) {
+            if (signatures[offset + h] == signature[h]) {
+                same++;
+            }
+        }
+        return same;
+    }
+
+    private int append(int signature[]) {
+        if (size == parent.length) {
+            int capacity = Math.max(16, size * 2);
+            signatures = Arrays.copyOf(signatures, capacity * numHashes);
+            parent = Arrays.copyOf(parent, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            visited = Arrays.copyOf(visited, capacity);
+            for (int b = 0; b < bands; b++) {
+                bandNext[b] = Arrays.copyOf(bandNext[b], capacity);
+            }
+        }
+        System.arraycopy(signature, 0, signatures, size * numHashes, numHashes);
+        parent[size] = size;
+        return size++;
+    }
+
+    private int find(int id) {
+        while (parent[id] != id) {
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+
+    private int union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) {
+            return rootA;
+        }
+        // Keep the older signature as the root so cluster ids are stable where possible
+        clusters--;
+        if (rootA < rootB) {
+            parent[rootB] = rootA;
+            return rootA;
+        }
+        parent[rootA] = rootB;
+        return rootB;
+    }
+
+    private int exactSlot(long hash, int signature[]) {
+        int mask = exactKeys.length - 1;
+        int slot = (int)(hash ^ (hash >>> 32)) & mask;
+        while (exactIds[slot] >= 0
+                && (signature == null || exactKeys[slot] != hash || matches(signature, exactIds[slot]) != numHashes)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehashExact() {
+        long oldKeys[] = exactKeys;
+        int oldIds[] = exactIds;
+        exactKeys = new long[oldKeys.length * 2];
+        exactIds = filled(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldIds[i] >= 0) {
+                // Entries are distinct signatures, so each goes in the first free slot
+                int slot = exactSlot(oldKeys[i], null);
+                exactKeys[slot] = oldKeys[i];
+                exactIds[slot] = oldIds[i];
+            }
+        }
+    }
+
+    private static int[] filled(int length) {
+        int array[] = new int[length];
+        Arrays.fill(array, -1);
+        return array;
+    }
+
+    private int slot(int band, long hash) {
+        long keys[] = bandKeys[band];
+        int heads[] = bandHeads[band];
+        int mask = keys.length - 1;
+        int slot = (int)(hash ^ (hash >>> 32)) & mask;
+        while (heads[slot] >= 0 && keys[slot] != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void insertBand(int band, long hash, int id) {
+        if ((bandUsed[band] + 1) * 4 > bandKeys[band].length * 3) {
+            rehash(band);
+        }
+
+        int slot = slot(band, hash);
+        if (bandHeads[band][slot] < 0) {
+            bandKeys[band][slot] = hash;
+            bandUsed[band]++;
+        }
+        bandNext[band][id] = bandHeads[band][slot];
+        bandHeads[band][slot] = id;
+    }
+
+    private void rehash(int band) {
+        long oldKeys[] = bandKeys[band];
+        int oldHeads[] = bandHeads[band];
+        bandKeys[band] = new long[oldKeys.length * 2];
+        bandHeads[band] = new int[oldKeys.length * 2];
+        Arrays.fill(bandHeads[band], -1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldHeads[i] >= 0) {
+                int slot = slot(band, oldKeys[i]);
+                bandKeys[band][slot] = oldKeys[i];
+                bandHeads[band][slot] = oldHeads[i];
+            }
+        }
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
@@ -0,0 +1,336 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The parts of a crash report needed to fingerprint it, decoded straight from the wire format.
+ *
+ * Only the first NUM_FINGERPRINT_FRAMES frames of each thread are decoded and everything else in the thread
+ * messages (remaining frames, registers, symbols) is skipped, as are the image UUIDs and code types and all
+ * report sections that do not contribute to the fingerprint.  Call toAnalyzer() to decode the full report when
+ * it needs to be rendered; required fields are only checked at that point.
+ */
+public class CrashFingerPrintView {
+    private static final int MAX_FRAMES = PlCrashReporterAnalyzer.NUM_FINGERPRINT_FRAMES;
+
+    private final ByteBuffer buffer;
+    private final ParseLimits limits;
+
+    private int crashedThreadNumber = -1;
+    private final long crashedFrames[] = new long[MAX_FRAMES];
+    private int crashedFrameCount;
+
+    private long imageBases[] = new long[64];
+    private long imageSizes[] = new long[64];
+    private String imageNames[] = new String[64];
+    private int imageCount;
+    private BinaryImageIndex imageIndex;
+
+    private String signalName = "";
+    private String signalCode = "";
+    private long signalAddress;
+
+    private boolean hasException;
+    private String exceptionName = "";
+    private String exceptionReason = "";
+
+    private CrashFingerPrintView(ByteBuffer buffer, ParseLimits limits) {
+        this.buffer = buffer;
+        this.limits = limits;
+    }
+
+    public static CrashFingerPrintView parse(byte[] buffer) throws IOException {
+        return parse(ByteBuffer.wrap(buffer));
+    }
+
+    public static CrashFingerPrintView parse(ByteBuffer buffer) throws IOException {
+        return parse(buffer, null);
+    }
+
+    /**
+     * Rejects the report with a ParseLimitExceededException if it goes over any of limits.
+     */
+    public static CrashFingerPrintView parse(ByteBuffer buffer, ParseLimits limits) throws IOException {
+        CrashFingerPrintView view = new CrashFingerPrintView(buffer, limits);
+        CodedInputStream input = PlCrashReporterAnalyzer.openPayload(buffer);
+
+        long cpuStart = 0;
+        if (limits != null) {
+            cpuStart = ParseLimits.cpuTime();
+            limits.validate(buffer, cpuStart);
+        }
+
+        long start = AnalyzerMetrics.ENABLED ? System.nanoTime() : 0;
+        try {
+            view.decode(input);
+        } catch (InvalidProtocolBufferException e) {
+            if (AnalyzerMetrics.ENABLED) {
+                AnalyzerMetrics.protobufFailure();
+            }
+            throw e;
+        }
+        if (AnalyzerMetrics.ENABLED) {
+            AnalyzerMetrics.recordPhase(AnalyzerMetrics.Phase.PARSE, start);
+            AnalyzerMetrics.reportParsed(buffer.remaining());
+        }
+        if (limits != null) {
+            limits.checkCpuTime(cpuStart);
+        }
+        return view;
+    }
+
+    public static CrashFingerPrintView load(String path, boolean memoryMap) throws IOException {
+        return parse(PlCrashReporterAnalyzer.readFile(path, memoryMap));
+    }
+
+    public static CrashFingerPrintView load(String path, boolean memoryMap, ParseLimits limits) throws IOException {
+        return parse(PlCrashReporterAnalyzer.readFile(path, memoryMap, limits), limits);
+    }
+
+    /**
+     * Fully decodes the report this view was read from, under the same limits it was parsed with.
+     */
+    public PlCrashReporterAnalyzer toAnalyzer() throws IOException {
+        return new PlCrashReporterAnalyzer(buffer, limits);
+    }
+
+    public String getCrashFingerPrint() {
+        return getCrashFingerPrint(CrashFingerPrinter.SHA1);
+    }
+
+    public String getCrashFingerPrint(CrashFingerPrinter fingerPrinter) {
+        return fingerPrinter.getFingerPrint(this);
+    }
+
+    public boolean hasCrashedThread() {
+        return crashedThreadNumber >= 0;
+    }
+
+    public int getCrashedThreadNumber() {
+        return crashedThreadNumber;
+    }
+
+    /**
+     * Number of crashed thread frames decoded, at most NUM_FINGERPRINT_FRAMES.
+     */
+    public int getCrashedFrameCount() {
+        return crashedFrameCount;
+    }
+
+    public long getCrashedFramePc(int idx) {
+        return crashedFrames[idx];
+    }
+
+    BinaryImageIndex getImageIndex() {
+        return imageIndex;
+    }
+
+    String getSignalString() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            PlCrashReporterAnalyzer.writeSignal(sb, signalName, signalCode, signalAddress);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    String getExceptionString() {
+        StringBuilder sb = new StringBuilder();
+        if (hasException) {
+            try {
+                PlCrashReporterAnalyzer.writeException(sb, exceptionName, exceptionReason);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return sb.toString();
+    }
+
+    private void decode(CodedInputStream input) throws IOException {
+        long threadFrames[] = new long[MAX_FRAMES];
+
+        int tag;
+        decodeLoop:
+        while ((tag = input.readTag()) != 0) {
+            switch (tag) {
+                case (CrashReport.THREADS_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED: {
+                    int limit = input.pushLimit(input.readRawVarint32());
+                    decodeThread(input, threadFrames);
+                    input.popLimit(limit);
+                    break;
+                }
+                case (CrashReport.BINARY_IMAGES_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED: {
+                    int limit = input.pushLimit(input.readRawVarint32());
+                    decodeImage(input);
+                    input.popLimit(limit);
+                    break;
+                }
+                case (CrashReport.EXCEPTION_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED: {
+                    int limit = input.pushLimit(input.readRawVarint32());
+                    decodeException(input);
+                    input.popLimit(limit);
+                    break;
+                }
+                case (CrashReport.SIGNAL_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED: {
+                    int limit = input.pushLimit(input.readRawVarint32());
+                    decodeSignal(input);
+                    input.popLimit(limit);
+                    break;
+                }
+                default:
+                    if (!input.skipField(tag)) {
+                        input.checkLastTagWas(0);
+                        break decodeLoop;
+                    }
+            }
+        }
+
+        imageIndex = new BinaryImageIndex(imageBases, imageSizes, imageNames, imageCount);
+    }
+
+    private void decodeThread(CodedInputStream input, long frames[]) throws IOException {
+        int threadNumber = 0;
+        boolean crashed = false;
+        int frameCount = 0;
+
+        int tag;
+        decodeLoop:
+        while ((tag = input.readTag()) != 0) {
+            switch (tag) {
+                case (CrashReport.Thread.THREAD_NUMBER_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_VARINT:
+                    threadNumber = input.readUInt32();
+                    break;
+                case (CrashReport.Thread.CRASHED_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_VARINT:
+                    crashed = input.readBool();
+                    break;
+                case (CrashReport.Thread.FRAMES_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED:
+                    if (frameCount < MAX_FRAMES) {
+                        int limit = input.pushLimit(input.readRawVarint32());
+                        frames[frameCount++] = decodeFramePc(input);
+                        input.popLimit(limit);
+                    } else if (!input.skipField(tag)) {
+                        input.checkLastTagWas(0);
+                        break decodeLoop;
+                    }
+                    break;
+                default:
+                    if (!input.skipField(tag)) {
+                        input.checkLastTagWas(0);
+                        break decodeLoop;
+                    }
+            }
+        }
+
+        // The first crashed thread is the one reported, as in PlCrashReporterAnalyzer.getCrashedThread()
+        if (crashed && crashedThreadNumber < 0) {
+            crashedThreadNumber = threadNumber;
+            crashedFrameCount = frameCount;
+            System.arraycopy(frames, 0, crashedFrames, 0, frameCount);
+        }
+    }
+
+    private long decodeFramePc(CodedInputStream input) throws IOException {
+        long pc = 0;
+
+        int tag;
+        while ((tag = input.readTag()) != 0) {
+            if (tag == ((CrashReport.Thread.StackFrame.PC_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_VARINT)) {
+                pc = input.readUInt64();
+            } else if (!input.skipField(tag)) {
+                input.checkLastTagWas(0);
+                break;
+            }
+        }
+        return pc;
+    }
+
+    private void decodeImage(CodedInputStream input) throws IOException {
+        long base = 0;
+        long size = 0;
+        String name = "";
+
+        int tag;
+        decodeLoop:
+        while ((tag = input.readTag()) != 0) {
+            switch (tag) {
+                case (CrashReport.BinaryImage.BASE_ADDRESS_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_VARINT:
+                    base = input.readUInt64();
+                    break;
+                case (CrashReport.BinaryImage.SIZE_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_VARINT:
+                    size = input.readUInt64();
+                    break;
+                case (CrashReport.BinaryImage.NAME_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED:
+                    name = input.readString();
+                    break;
+                default:
+                    if (!input.skipField(tag)) {
+                        input.checkLastTagWas(0);
+                        break decodeLoop;
+                    }
+            }
+        }
+
+        if (imageCount == imageBases.length) {
+            imageBases = Arrays.copyOf(imageBases, imageCount * 2);
+            imageSizes = Arrays.copyOf(imageSizes, imageCount * 2);
+            imageNames = Arrays.copyOf(imageNames, imageCount * 2);
+        }
+        imageBases[imageCount] = base;
+        imageSizes[imageCount] = size;
+        imageNames[imageCount] = name;
+        imageCount++;
+    }
+
+    private void decodeException(CodedInputStream input) throws IOException {
+        hasException = true;
+
+        int tag;
+        decodeLoop:
+        while ((tag = input.readTag()) != 0) {
+            switch (tag) {
+                case (CrashReport.Exception.NAME_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED:
+                    exceptionName = input.readString();
+                    break;
+                case (CrashReport.Exception.REASON_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED:
+                    exceptionReason = input.readString();
+                    break;
+                default:
+                    if (!input.skipField(tag)) {
+                        input.checkLastTagWas(0);
+                        break decodeLoop;
+                    }
+            }
+        }
+    }
+
+    private void decodeSignal(CodedInputStream input) throws IOException {
+        int tag;
+        decodeLoop:
+        while ((tag = input.readTag()) != 0) {
+            switch (tag) {
+                case (CrashReport.Signal.NAME_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED:
+                    signalName = input.readString();
+                    break;
+                case (CrashReport.Signal.CODE_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED:
+                    signalCode = input.readString();
+                    break;
+                case (CrashReport.Signal.ADDRESS_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_VARINT:
+                    signalAddress = input.readUInt64();
+                    break;
+                default:
+                    if (!input.skipField(tag)) {
+                        input.checkLastTagWas(0);
+                        break decodeLoop;
+                    }
+            }
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import com.google.common.base.Supplier;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport.Thread;
+
+import java.nio.charset.Charset;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Computes crash fingerprints from the top frames of the crashed thread.
+ *
+ * The text that is hashed is the same as the historical fingerprint input ("idx image 0xbase + offset\n" per
+ * frame), but it is written straight into a per-thread byte buffer and hashed there, so no Strings are built for
+ * the frames.  SHA1 gives exactly the fingerprints produced by earlier versions; MURMUR3_128 is a faster
+ * non-cryptographic hash for bucketing.
+ */
+public class CrashFingerPrinter {
+    /**
+     * A hash over the fingerprint input.  Instances are only ever used by one thread.
+     */
+    public interface Hash {
+        int getDigestLength();
+
+        void hash(byte input[], int offset, int length, byte digest[]);
+    }
+
+    public static final CrashFingerPrinter SHA1 = new CrashFingerPrinter(new Supplier<Hash>() {
+        public Hash get() {
+            return new Sha1Hash();
+        }
+    });
+
+    public static final CrashFingerPrinter MURMUR3_128 = new CrashFingerPrinter(new Supplier<Hash>() {
+        public Hash get() {
+            return new GuavaHash(Hashing.murmur3_128());
+        }
+    });
+
+    private static final char HEX_DIGITS[] = "0123456789ABCDEF".toCharArray();
+
+    private final ThreadLocal<State> state;
+
+    /**
+     * @param hashSupplier creates one Hash for each thread that computes fingerprints
+     */
+    public CrashFingerPrinter(final Supplier<Hash> hashSupplier) {
+        this.state = new ThreadLocal<State>() {
+            @Override
+            protected State initialValue() {
+                return new State(hashSupplier.get());
+            }
+        };
+    }
+
+    /**
+     * Returns the fingerprint of the analyzed report as upper case hex.
+     */
+    public String getFingerPrint(PlCrashReporterAnalyzer analyzer) {
+        return getFingerPrint(analyzer, FingerPrintStrategy.DEFAULT);
+    }
+
+    public String getFingerPrint(PlCrashReporterAnalyzer analyzer, FingerPrintStrategy strategy) {
+        long start = AnalyzerMetrics.ENABLED ? System.nanoTime() : 0;
+        State s = state.get();
+        s.input.reset();
+
+        Thread thread = analyzer.getCrashedThread();
+        // If a thread crashed use the top stack frames of it
+        if (thread != null) {
+            BinaryImageIndex images = analyzer.getImageIndex();
+            int count = Math.min(thread.getFramesCount(), strategy.getFrameCount());
+            for (int i = 0; i < count; i++) {
+                appendStackFrameBrief(s.input, strategy, images, thread.getFrames(i).getPc(), i);
+            }
+        // Otherwise use the signal and exception info
+        } else {
+            appendFallback(s.input, strategy, analyzer.getSignalString(), analyzer.getExceptionString());
+        }
+
+        return digest(s, start);
+    }
+
+    /**
+     * Returns the fingerprint of a saved report input, the same as for the report it was taken from.
+     *
+     * @throws IllegalArgumentException if the strategy uses more than FingerPrintInput.MAX_FRAMES frames, which a
+     *         saved input can't reproduce
+     */
+    public String getFingerPrint(FingerPrintInput input, FingerPrintStrategy strategy) {
+        checkSavedInputStrategy(strategy);
+        long start = AnalyzerMetrics.ENABLED ? System.nanoTime() : 0;
+        State s = state.get();
+        s.input.reset();
+
+        if (input.hasCrashedThread()) {
+            int count = Math.min(input.getFrameCount(), strategy.getFrameCount());
+            for (int i = 0; i < count; i++) {
+                appendStackFrameBrief(s.input, strategy, i, input.getImageName(i), 0, input.getBaseAddress(i),
+                        input.getOffset(i));
+            }
+        } else {
+            appendFallback(s.input, strategy, input.getSignalString(), input.getExceptionString());
+        }
+
+        return digest(s, start);
+    }
+
+    static void checkSavedInputStrategy(FingerPrintStrategy strategy) {
+        if (strategy.getFrameCount() > FingerPrintInput.MAX_FRAMES) {
+            throw new IllegalArgumentException("frameCount must be at most " + FingerPrintInput.MAX_FRAMES
+                    + " for a saved input");
+        }
+    }
+
+    /**
+     * Returns the same fingerprint as getFingerPrint(PlCrashReporterAnalyzer) from a partially decoded report.
+     */
+    public String getFingerPrint(CrashFingerPrintView view) {
+        long start = AnalyzerMetrics.ENABLED ? System.nanoTime() : 0;
+        State s = state.get();
+        s.input.reset();
+
+        if (view.hasCrashedThread()) {
+            BinaryImageIndex images = view.getImageIndex();
+            for (int i = 0; i < view.getCrashedFrameCount(); i++) {
+                appendStackFrameBrief(s.input, FingerPrintStrategy.DEFAULT, images, view.getCrashedFramePc(i), i);
+            }
+        } else {
+            appendFallback(s.input, FingerPrintStrategy.DEFAULT, view.getSignalString(), view.getExceptionString());
+        }
+
+        return digest(s, start);
+    }
+
+    private static String digest(State s, long start) {
+        s.hash.hash(s.input.bytes, 0, s.input.length, s.digest);
+        if (AnalyzerMetrics.ENABLED) {
+            AnalyzerMetrics.recordPhase(AnalyzerMetrics.Phase.FINGERPRINT, start);
+        }
+
+        char hex[] = s.hex;
+        for (int i = 0; i < s.digest.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(s.digest[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[s.digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private static void appendStackFrameBrief(ByteSink input, FingerPrintStrategy strategy, BinaryImageIndex images,
+                                              long pc, long frameIdx) {
+        int imageIdx = images.indexOf(pc);
+        if (imageIdx >= 0) {
+            String name = images.getName(imageIdx);
+            long baseAddress = images.getBaseAddress(imageIdx);
+            appendStackFrameBrief(input, strategy, frameIdx, name, name.lastIndexOf('/') + 1, baseAddress,
+                    pc - baseAddress);
+        } else {
+            appendStackFrameBrief(input, strategy, frameIdx, PlCrashReporterAnalyzer.unknownString, 0, 0, 0);
+        }
+    }
+
+    /*
+     * Same text as "%d %s 0x%x + %d\n" with the image name from nameStart, leaving out the fields the strategy
+     * does not include
+     */
+    private static void appendStackFrameBrief(ByteSink input, FingerPrintStrategy strategy, long frameIdx,
+                                              String name, int nameStart, long baseAddress, long pcOffset) {
+        int start = input.length;
+        if (strategy.includesFrameIndex()) {
+            input.appendDecimal(frameIdx);
+        }
+        if (strategy.includesImageName()) {
+            separate(input, start);
+            input.append(name, nameStart);
+        }
+        if (strategy.includesBaseAddress()) {
+            separate(input, start);
+            input.append((byte)'0');
+            input.append((byte)'x');
+            input.appendHex(baseAddress);
+        }
+        if (strategy.includesOffset()) {
+            separate(input, start);
+            input.append((byte)'+');
+            input.append((byte)' ');
+            input.appendDecimal(pcOffset);
+        }
+        input.append((byte)'\n');
+    }
+
+    private static void separate(ByteSink input, int lineStart) {
+        if (input.length > lineStart) {
+            input.append((byte)' ');
+        }
+    }
+
+    private static void appendFallback(ByteSink input, FingerPrintStrategy strategy, String signal, String exception) {
+        switch (strategy.getFallback()) {
+            case SIGNAL_AND_EXCEPTION:
+                input.append(signal);
+                input.append(exception);
+                break;
+            case SIGNAL:
+                input.append(signal);
+                break;
+            case EXCEPTION:
+                input.append(exception.isEmpty() ? signal : exception);
+                break;
+        }
+    }
+
+    private static class State {
+        final Hash hash;
+        final ByteSink input = new ByteSink();
+        final byte digest[];
+        final char hex[];
+
+        State(Hash hash) {
+            this.hash = hash;
+            this.digest = new byte[hash.getDigestLength()];
+            this.hex = new char[digest.length * 2];
+        }
+    }
+
+    /**
+     * Growable byte buffer that formats numbers without going through String.
+     * Text is encoded with the platform charset, matching String.getBytes().
+     */
+    private static class ByteSink {
+        private static final Charset CHARSET = Charset.defaultCharset();
+
+        byte bytes[] = new byte[512];
+        int length;
+
+        void reset() {
+            length = 0;
+        }
+
+        private void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+
+        void append(byte b) {
+            ensure(1);
+            bytes[length++] = b;
+        }
+
+        void append(String s) {
+            append(s, 0);
+        }
+
+        void append(String s, int start) {
+            int end = s.length();
+            ensure(end - start);
+            for (int i = start; i < end; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x80) {
+                    // Leave anything that is not plain ASCII to the charset encoder
+                    byte encoded[] = s.substring(i).getBytes(CHARSET);
+                    ensure(encoded.length);
+                    System.arraycopy(encoded, 0, bytes, length, encoded.length);
+                    length += encoded.length;
+                    return;
+                }
+                bytes[length++] = (byte)c;
+            }
+        }
+
+        void appendDecimal(long value) {
+            if (value == Long.MIN_VALUE) {
+                append(Long.toString(value));
+                return;
+            }
+            if (value < 0) {
+                append((byte)'-');
+                value = -value;
+            }
+
+            int digits = 1;
+            for (long v = value / 10; v != 0; v /= 10) {
+                digits++;
+            }
+            ensure(digits);
+            for (int i = length + digits - 1; i >= length; i--) {
+                bytes[i] = (byte)('0' + (value % 10));
+                value /= 10;
+            }
+            length += digits;
+        }
+
+        void appendHex(long value) {
+            int digits = Math.max(1, (64 - Long.numberOfLeadingZeros(value) + 3) / 4);
+            ensure(digits);
+            for (int i = length + digits - 1; i >= length; i--) {
+                bytes[i] = (byte)Character.forDigit((int)(value & 0xf), 16);
+                value >>>= 4;
+            }
+            length += digits;
+        }
+    }
+
+    private static class Sha1Hash implements Hash {
+        private final MessageDigest messageDigest;
+
+        Sha1Hash() {
+            try {
+                messageDigest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        public int getDigestLength() {
+            return messageDigest.getDigestLength();
+        }
+
+        public void hash(byte input[], int offset, int length, byte digest[]) {
+            messageDigest.update(input, offset, length);
+            try {
+                messageDigest.digest(digest, 0, digest.length);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static class GuavaHash implements Hash {
+        private final HashFunction function;
+
+        GuavaHash(HashFunction function) {
+            this.function = function;
+        }
+
+        public int getDigestLength() {
+            return function.bits() / 8;
+        }
+
+        public void hash(byte input[], int offset, int length, byte digest[]) {
+            function.hashBytes(input, offset, length).writeBytesTo(digest, 0, digest.length);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads crash reports from a stream of records, each a 4 byte big-endian length followed by that many bytes of
+ * .plcrash file.
+ *
+ * Records are read into one of two reusable buffers by a background thread, so the next record is read while the
+ * current one is decoded, and memory use stays at two buffers of at most twice the size of the largest record
+ * seen.  A record longer than the file size limit is skipped without being buffered.  A record that fails to
+ * decode only fails its own next*() call; the stream stays in step and the following call returns the next
+ * record.  A stream that ends part way through a record fails with an EOFException.
+ *
+ * An analyzer returned by nextAnalyzer() holds no reference to the buffer.  A view returned by nextView() reads its
+ * report from the buffer when toAnalyzer() is called, so that is only valid until the next call to this reader.
+ * Instances are for use by one thread.
+ */
+public class CrashReportStreamReader implements Closeable {
+    /* Size of the length prefix of each record */
+    public static final int LENGTH_SIZE = 4;
+
+    private static final int INITIAL_BUFFER_SIZE = 64 << 10;
+
+    private final ReadableByteChannel channel;
+    private final ParseLimits limits;
+    private final BinaryImageInterner imageInterner;
+
+    private final BlockingQueue<Slot> free = new ArrayBlockingQueue<Slot>(2);
+    private final BlockingQueue<Slot> filled = new ArrayBlockingQueue<Slot>(2);
+    private final Thread readerThread;
+
+    /* Slot holding the record returned last, given back to the reader thread by the next call */
+    private Slot current;
+    private long recordCount;
+    private boolean finished;
+
+    public CrashReportStreamReader(InputStream in) {
+        this(Channels.newChannel(in), ParseLimits.DEFAULT, null);
+    }
+
+    public CrashReportStreamReader(ReadableByteChannel channel) {
+        this(channel, ParseLimits.DEFAULT, null);
+    }
+
+    /**
+     * @param limits checked for every record, or null for none beyond the file format
+     * @param imageInterner shared by every analyzer read, or null
+     */
+    public CrashReportStreamReader(ReadableByteChannel channel, ParseLimits limits, BinaryImageInterner imageInterner) {
+        this.channel = channel;
+        this.limits = limits;
+        this.imageInterner = imageInterner;
+        free.add(new Slot());
+        free.add(new Slot());
+
+        readerThread = new Thread(new Runnable() {
+            public void run() {
+                readRecords();
+            }
+        }, "CrashReportStreamReader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    /**
+     * Returns the next report, or null at the end of the stream.
+     */
+    public PlCrashReporterAnalyzer nextAnalyzer() throws IOException {
+        ByteBuffer record = nextRecord();
+        if (record == null) {
+            return null;
+        }
+        return new PlCrashReporterAnalyzer(record, imageInterner, limits);
+    }
+
+    /**
+     * Returns the fingerprint view of the next report, or null at the end of the stream.
+     */
+    public CrashFingerPrintView nextView() throws IOException {
+        ByteBuffer record = nextRecord();
+        if (record == null) {
+            return null;
+        }
+        return CrashFingerPrintView.parse(record, limits);
+    }
+
+    /**
+     * Number of records read so far, including failed ones.
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Stops reading and closes the channel.
+     */
+    public void close() throws IOException {
+        finished = true;
+        readerThread.interrupt();
+        channel.close();
+        try {
+            readerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ByteBuffer nextRecord() throws IOException {
+        if (current != null) {
+            free.add(current);
+            current = null;
+        }
+        if (finished) {
+            return null;
+        }
+
+        Slot slot;
+        try {
+            slot = filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+        if (slot.failure != null) {
+            finished = true;
+            throw slot.failure;
+        }
+        if (slot.length < 0) {
+            finished = true;
+            return null;
+        }
+
+        current = slot;
+        recordCount++;
+        if (slot.skipped) {
+            throw new ParseLimitExceededException(ParseLimitExceededException.Limit.FILE_SIZE, limits.getMaxFileSize());
+        }
+        return ByteBuffer.wrap(slot.buffer, 0, slot.length);
+    }
+
+    /* Runs on the reader thread until the end of the stream, an error or close() */
+    private void readRecords() {
+        ByteBuffer length = ByteBuffer.allocate(LENGTH_SIZE);
+        try {
+            while (true) {
+                Slot slot = free.take();
+                slot.length = -1;
+                slot.skipped = false;
+                slot.failure = null;
+
+                try {
+                    length.clear();
+                    if (!readFully(length, true)) {
+                        // Clean end of the stream
+                        filled.put(slot);
+                        return;
+                    }
+
+                    int recordLength = length.getInt(0);
+                    if (recordLength < 0) {
+                        throw new IOException("Invalid record length " + (recordLength & 0xffffffffL));
+                    }
+                    if (limits != null && recordLength > limits.getMaxFileSize()) {
+                        skip(recordLength);
+                        slot.skipped = true;
+                    } else {
+                        if (slot.buffer.length < recordLength) {
+                            slot.buffer = new byte[Math.max(recordLength, slot.buffer.length * 2)];
+                        }
+                        readFully(ByteBuffer.wrap(slot.buffer, 0, recordLength), false);
+                    }
+                    slot.length = recordLength;
+                } catch (IOException e) {
+                    slot.failure = e;
+                }
+
+                filled.put(slot);
+                if (slot.failure != null) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /* Returns false if the stream ended before any byte was read and that is allowed */
+    private boolean readFully(ByteBuffer buffer, boolean endAllowed) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (buffer.position() == 0 && endAllowed) {
+                    return false;
+                }
+                throw new EOFException("Stream ended inside a crash report record");
+            }
+        }
+        return true;
+    }
+
+    private void skip(int count) throws IOException {
+        ByteBuffer discard = ByteBuffer.allocate(Math.min(count, 8192));
+        while (count > 0) {
+            discard.clear();
+            discard.limit(Math.min(count, discard.capacity()));
+            readFully(discard, false);
+            count -= discard.limit();
+        }
+    }
+
+    private static final class Slot {
+        byte buffer[] = new byte[INITIAL_BUFFER_SIZE];
+        int length;
+        boolean skipped;
+        IOException failure;
+    }
+}
@@ -0,0 +1,127 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport.Thread;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Approximate top-K counts over a stream of reports, in memory fixed by the HeavyHitters dimensions.
+ *
+ * Each report adds one count to its OS version, hardware model, code type and the image of its top crashed frame,
+ * and one to each of the top frames of its crashed thread.  Frames are keyed as in the fingerprint brief,
+ * "image 0xbase + offset", without the frame index so the same frame counts together at any depth.  Like
+ * HeavyHitters this is not thread safe: parallel workers keep their own and merge() them, or writeTo() and
+ * readFrom() them between machines.
+ */
+public class CrashStatistics {
+    public enum Dimension {
+        FRAME,
+        IMAGE,
+        OS_VERSION,
+        HARDWARE_MODEL,
+        CODE_TYPE
+    }
+
+    private final Map<Dimension, HeavyHitters> dimensions = new EnumMap<Dimension, HeavyHitters>(Dimension.class);
+    private long reports;
+
+    public CrashStatistics() {
+        this(100, 2048, 4);
+    }
+
+    /**
+     * @see HeavyHitters#HeavyHitters(int, int, int)
+     */
+    public CrashStatistics(int k, int width, int depth) {
+        for (Dimension dimension : Dimension.values()) {
+            dimensions.put(dimension, new HeavyHitters(k, width, depth));
+        }
+    }
+
+    private CrashStatistics(Map<Dimension, HeavyHitters> dimensions, long reports) {
+        this.dimensions.putAll(dimensions);
+        this.reports = reports;
+    }
+
+    public void add(PlCrashReporterAnalyzer analyzer) {
+        reports++;
+
+        String osVersion = analyzer.getOperatingSystem();
+        if (analyzer.getReport().hasSystemInfo()) {
+            osVersion += " " + analyzer.getReport().getSystemInfo().getOsVersion();
+        }
+        dimensions.get(Dimension.OS_VERSION).add(osVersion);
+        dimensions.get(Dimension.HARDWARE_MODEL).add(analyzer.getHardwareModel());
+        dimensions.get(Dimension.CODE_TYPE).add(analyzer.getCodeType());
+
+        Thread thread = analyzer.getCrashedThread();
+        if (thread == null) {
+            return;
+        }
+
+        BinaryImageIndex images = analyzer.getImageIndex();
+        HeavyHitters frames = dimensions.get(Dimension.FRAME);
+        StringBuilder key = new StringBuilder();
+        int count = Math.min(thread.getFramesCount(), PlCrashReporterAnalyzer.NUM_FINGERPRINT_FRAMES);
+        for (int i = 0; i < count; i++) {
+            long pc = thread.getFrames(i).getPc();
+            int idx = images.indexOf(pc);
+            String image = idx >= 0 ? images.getShortName(idx) : PlCrashReporterAnalyzer.unknownString;
+            long base = idx >= 0 ? images.getBaseAddress(idx) : 0;
+            long offset = idx >= 0 ? pc - base : 0;
+
+            key.setLength(0);
+            key.append(image).append(" 0x").append(Long.toHexString(base)).append(" + ").append(offset);
+            frames.add(key.toString());
+            if (i == 0) {
+                dimensions.get(Dimension.IMAGE).add(image);
+            }
+        }
+    }
+
+    /**
+     * Returns up to n of the most frequent values of dimension, most frequent first.
+     */
+    public List<HeavyHitters.Entry> top(Dimension dimension, int n) {
+        return dimensions.get(dimension).top(n);
+    }
+
+    public HeavyHitters getHeavyHitters(Dimension dimension) {
+        return dimensions.get(dimension);
+    }
+
+    public long getReportCount() {
+        return reports;
+    }
+
+    /**
+     * Adds the counts of other, which must have been created with the same dimensions, to this instance.
+     */
+    public void merge(CrashStatistics other) {
+        for (Dimension dimension : Dimension.values()) {
+            dimensions.get(dimension).merge(other.dimensions.get(dimension));
+        }
+        reports += other.reports;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(reports);
+        for (Dimension dimension : Dimension.values()) {
+            dimensions.get(dimension).writeTo(out);
+        }
+    }
+
+    public static CrashStatistics readFrom(DataInput in) throws IOException {
+        long reports = in.readLong();
+        Map<Dimension, HeavyHitters> dimensions = new EnumMap<Dimension, HeavyHitters>(Dimension.class);
+        for (Dimension dimension : Dimension.values()) {
+            dimensions.put(dimension, HeavyHitters.readFrom(in));
+        }
+        return new CrashStatistics(dimensions, reports);
+    }
+}
@@ -0,0 +1,720 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent crash counts keyed by fingerprint.
+ *
+ * Every recorded crash is appended to buckets.log, which is the source of truth.  buckets.idx is a memory-mapped
+ * open-addressing table holding, for each fingerprint, the count, first and last crash time, the log offset of the
+ * first sample and the head of a chain of log records linking each app version seen.  The index is only trusted
+ * when it was closed or flushed cleanly; otherwise it is rebuilt by replaying the log, and a torn record at the end
+ * of the log is truncated away.  A damaged record anywhere else fails the rebuild with an IOException rather than
+ * losing the records after it.
+ *
+ * Recording is safe from many threads.  Existing buckets are updated under a striped lock; only creating a bucket
+ * takes the table-wide lock.
+ */
+public class FingerPrintBucketStore implements Closeable {
+    public static final String LOG_FILE = "buckets.log";
+    public static final String INDEX_FILE = "buckets.idx";
+    public static final int MAX_FINGERPRINT_LENGTH = 48;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int INDEX_MAGIC = 0x706c6278; /* "plbx" */
+    private static final int INDEX_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_CAPACITY = 8;
+    private static final int HEADER_SIZE_FIELD = 12;
+    private static final int HEADER_LOG_POSITION = 16;
+    private static final int HEADER_DIRTY = 24;
+
+    private static final int SLOT_SIZE = 96;
+    private static final int SLOT_KEY_LENGTH = 0;
+    /* 4 bytes unused, once the hash of the last version seen */
+    private static final int SLOT_KEY = 8;
+    private static final int SLOT_COUNT = 56;
+    private static final int SLOT_FIRST_SEEN = 64;
+    private static final int SLOT_LAST_SEEN = 72;
+    private static final int SLOT_FIRST_RECORD = 80;
+    private static final int SLOT_VERSION_HEAD = 88;
+
+    private static final int SLOTS_PER_SEGMENT = 1 << 20;
+    private static final int INITIAL_CAPACITY = 1 << 14;
+    private static final int STRIPES = 64;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final byte RECORD_NEW_VERSION = 1;
+    /* flags, timestamp, previous version offset and the three string lengths */
+    private static final int MIN_BODY_LENGTH = 1 + 8 + 8 + 2 + 2 + 2;
+    private static final int MAX_BODY_LENGTH = MIN_BODY_LENGTH + 3 * 0xffff;
+
+    private final File directory;
+    private final FileChannel logChannel;
+    private final Object logLock = new Object();
+    private long logSize;
+
+    private final ReentrantReadWriteLock tableLock = new ReentrantReadWriteLock();
+    private final Object stripes[] = new Object[STRIPES];
+
+    private FileChannel indexChannel;
+    private MappedByteBuffer header;
+    private MappedByteBuffer segments[];
+    private int capacity;
+    private int size;
+    private volatile boolean dirty;
+
+    public static class Bucket {
+        private final String fingerPrint;
+        private final long count;
+        private final long firstSeen;
+        private final long lastSeen;
+        private final Set<String> appVersions;
+        private final String samplePath;
+
+        Bucket(String fingerPrint, long count, long firstSeen, long lastSeen, Set<String> appVersions, String samplePath) {
+            this.fingerPrint = fingerPrint;
+            this.count = count;
+            this.firstSeen = firstSeen;
+            this.lastSeen = lastSeen;
+            this.appVersions = Collections.unmodifiableSet(appVersions);
+            this.samplePath = samplePath;
+        }
+
+        public String getFingerPrint() { return fingerPrint; }
+        public long getCount() { return count; }
+        /** Earliest crash timestamp, in seconds since the epoch */
+        public long getFirstSeen() { return firstSeen; }
+        /** Latest crash timestamp, in seconds since the epoch */
+        public long getLastSeen() { return lastSeen; }
+        /** App versions in the order they were first seen */
+        public Set<String> getAppVersions() { return appVersions; }
+        /** Path of the first report recorded in this bucket */
+        public String getSamplePath() { return samplePath; }
+    }
+
+    public FingerPrintBucketStore(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        this.directory = directory;
+
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+
+        logChannel = new RandomAccessFile(new File(directory, LOG_FILE), "rw").getChannel();
+        try {
+            recover();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Records one crash, fingerprinted with the SHA-1 fingerprint.
+     */
+    public void record(PlCrashReporterAnalyzer analyzer, String samplePath) throws IOException {
+        record(analyzer.getCrashFingerPrint(CrashFingerPrinter.SHA1), analyzer.getTimestamp(),
+                analyzer.getApplicationVersion(), samplePath);
+    }
+
+    public void record(String fingerPrint, long timestamp, String appVersion, String samplePath) throws IOException {
+        byte key[] = fingerPrint.getBytes(UTF8);
+        if (key.length == 0 || key.length > MAX_FINGERPRINT_LENGTH) {
+            throw new IllegalArgumentException("Fingerprint must be 1 to " + MAX_FINGERPRINT_LENGTH + " bytes");
+        }
+        if (appVersion == null) {
+            appVersion = "";
+        }
+        if (samplePath == null) {
+            samplePath = "";
+        }
+
+        markDirty();
+
+        tableLock.readLock().lock();
+        try {
+            int slot = find(key);
+            if (slot >= 0) {
+                update(slot, key, timestamp, appVersion, samplePath);
+                return;
+            }
+        } finally {
+            tableLock.readLock().unlock();
+        }
+
+        tableLock.writeLock().lock();
+        try {
+            int slot = find(key);
+            if (slot < 0) {
+                slot = insert(key);
+            }
+            update(slot, key, timestamp, appVersion, samplePath);
+        } finally {
+            tableLock.writeLock().unlock();
+        }
+    }
+
+    public Bucket get(String fingerPrint) throws IOException {
+        tableLock.readLock().lock();
+        try {
+            int slot = find(fingerPrint.getBytes(UTF8));
+            return slot < 0 || segment(slot).getLong(position(slot) + SLOT_COUNT) == 0 ? null : readBucket(slot);
+        } finally {
+            tableLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the n buckets with the highest counts, largest first.
+     */
+    public List<Bucket> top(int n) throws IOException {
+        tableLock.readLock().lock();
+        try {
+            // Min-heap of {count, slot} holding the best n seen so far
+            PriorityQueue<long[]> heap = new PriorityQueue<long[]>(Math.max(1, n), new Comparator<long[]>() {
+                public int compare(long[] a, long[] b) {
+                    return Long.compare(a[0], b[0]);
+                }
+            });
+
+            for (int slot = 0; slot < capacity && n > 0; slot++) {
+                ByteBuffer segment = segment(slot);
+                int pos = position(slot);
+                if (segment.getInt(pos + SLOT_KEY_LENGTH) == 0) {
+                    continue;
+                }
+
+                long count = segment.getLong(pos + SLOT_COUNT);
+                if (count == 0) {
+                    continue;
+                }
+                if (heap.size() < n) {
+                    heap.add(new long[] { count, slot });
+                } else if (heap.peek()[0] < count) {
+                    heap.poll();
+                    heap.add(new long[] { count, slot });
+                }
+            }
+
+            List<Bucket> result = new ArrayList<Bucket>(heap.size());
+            while (!heap.isEmpty()) {
+                result.add(readBucket((int)heap.poll()[1]));
+            }
+            Collections.reverse(result);
+            return result;
+        } finally {
+            tableLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Number of distinct fingerprints.
+     */
+    public int size() {
+        tableLock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            tableLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Forces the log and index to disk and marks the index clean, so the next open does not replay the log.
+     */
+    public void flush() throws IOException {
+        tableLock.writeLock().lock();
+        try {
+            if (header == null) {
+                return;
+            }
+            synchronized (logLock) {
+                logChannel.force(false);
+
+                for (MappedByteBuffer segment : segments) {
+                    segment.force();
+                }
+                header.putInt(HEADER_SIZE_FIELD, size);
+                header.putLong(HEADER_LOG_POSITION, logSize);
+                header.putInt(HEADER_DIRTY, 0);
+                header.force();
+                dirty = false;
+            }
+        } finally {
+            tableLock.writeLock().unlock();
+        }
+    }
+
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (indexChannel != null) {
+                indexChannel.close();
+            }
+            logChannel.close();
+            header = null;
+            segments = null;
+        }
+    }
+
+    private void update(int slot, byte key[], long timestamp, String appVersion, String samplePath) throws IOException {
+        synchronized (stripes[slot & (STRIPES - 1)]) {
+            ByteBuffer segment = segment(slot);
+            int pos = position(slot);
+
+            // The chain is newest first, so a repeat of the latest version costs one record read
+            long versionHead = segment.getLong(pos + SLOT_VERSION_HEAD);
+            boolean newVersion = versionHead < 0 || !hasVersion(versionHead, appVersion);
+
+            long offset = appendRecord(newVersion ? RECORD_NEW_VERSION : 0, timestamp,
+                    newVersion ? versionHead : -1, key, appVersion, samplePath);
+            apply(segment, pos, offset, timestamp, newVersion);
+        }
+    }
+
+    private static void apply(ByteBuffer segment, int pos, long offset, long timestamp, boolean newVersion) {
+        long count = segment.getLong(pos + SLOT_COUNT);
+        if (count == 0) {
+            segment.putLong(pos + SLOT_FIRST_RECORD, offset);
+            segment.putLong(pos + SLOT_FIRST_SEEN, timestamp);
+            segment.putLong(pos + SLOT_LAST_SEEN, timestamp);
+        } else {
+            segment.putLong(pos + SLOT_FIRST_SEEN, Math.min(timestamp, segment.getLong(pos + SLOT_FIRST_SEEN)));
+            segment.putLong(pos + SLOT_LAST_SEEN, Math.max(timestamp, segment.getLong(pos + SLOT_LAST_SEEN)));
+        }
+        segment.putLong(pos + SLOT_COUNT, count + 1);
+
+        if (newVersion) {
+            segment.putLong(pos + SLOT_VERSION_HEAD, offset);
+        }
+    }
+
+    private boolean hasVersion(long recordOffset, String appVersion) throws IOException {
+        while (recordOffset >= 0) {
+            Record record = readValidRecord(recordOffset);
+            if (record.appVersion.equals(appVersion)) {
+                return true;
+            }
+            recordOffset = record.prevVersionRecord;
+        }
+        return false;
+    }
+
+    private Bucket readBucket(int slot) throws IOException {
+        ByteBuffer segment = segment(slot);
+        int pos = position(slot);
+
+        long count;
+        long firstSeen;
+        long lastSeen;
+        long firstRecord;
+        long versionHead;
+        synchronized (stripes[slot & (STRIPES - 1)]) {
+            count = segment.getLong(pos + SLOT_COUNT);
+            firstSeen = segment.getLong(pos + SLOT_FIRST_SEEN);
+            lastSeen = segment.getLong(pos + SLOT_LAST_SEEN);
+            firstRecord = segment.getLong(pos + SLOT_FIRST_RECORD);
+            versionHead = segment.getLong(pos + SLOT_VERSION_HEAD);
+        }
+
+        List<String> versions = new ArrayList<String>();
+        for (long offset = versionHead; offset >= 0; ) {
+            Record record = readValidRecord(offset);
+            versions.add(record.appVersion);
+            offset = record.prevVersionRecord;
+        }
+        Collections.reverse(versions);
+
+        byte key[] = new byte[segment.getInt(pos + SLOT_KEY_LENGTH)];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = segment.get(pos + SLOT_KEY + i);
+        }
+
+        Record first = firstRecord >= 0 ? readValidRecord(firstRecord) : null;
+        return new Bucket(new String(key, UTF8), count, firstSeen, lastSeen, new LinkedHashSet<String>(versions),
+                first != null ? first.samplePath : null);
+    }
+
+    /* Hash table */
+
+    private static int hash(byte key[]) {
+        int h = 1;
+        for (byte b : key) {
+            h = 31 * h + b;
+        }
+        // Finalization step from MurmurHash3 to spread the low bits
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private ByteBuffer segment(int slot) {
+        return segments[slot / SLOTS_PER_SEGMENT];
+    }
+
+    private static int position(int slot) {
+        return (slot % SLOTS_PER_SEGMENT) * SLOT_SIZE;
+    }
+
+    private int find(byte key[]) {
+        int mask = capacity - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            ByteBuffer segment = segment(slot);
+            int pos = position(slot);
+            int keyLength = segment.getInt(pos + SLOT_KEY_LENGTH);
+            if (keyLength == 0) {
+                return -1;
+            }
+            if (keyLength == key.length && keyEquals(segment, pos, key)) {
+                return slot;
+            }
+        }
+    }
+
+    private static boolean keyEquals(ByteBuffer segment, int pos, byte key[]) {
+        for (int i = 0; i < key.length; i++) {
+            if (segment.get(pos + SLOT_KEY + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Callers hold the write lock */
+    private int insert(byte key[]) throws IOException {
+        if ((size + 1) * 4L > capacity * 3L) {
+            resize(capacity * 2);
+        }
+
+        int mask = capacity - 1;
+        int slot = hash(key) & mask;
+        while (segment(slot).getInt(position(slot) + SLOT_KEY_LENGTH) != 0) {
+            slot = (slot + 1) & mask;
+        }
+
+        ByteBuffer segment = segment(slot);
+        int pos = position(slot);
+        for (int i = 0; i < key.length; i++) {
+            segment.put(pos + SLOT_KEY + i, key[i]);
+        }
+        segment.putLong(pos + SLOT_COUNT, 0);
+        segment.putLong(pos + SLOT_FIRST_RECORD, -1);
+        segment.putLong(pos + SLOT_VERSION_HEAD, -1);
+        segment.putInt(pos + SLOT_KEY_LENGTH, key.length);
+        size++;
+        return slot;
+    }
+
+    private void resize(int newCapacity) throws IOException {
+        File newFile = new File(directory, INDEX_FILE + ".tmp");
+        FileChannel newChannel = createIndex(newFile, newCapacity);
+        MappedByteBuffer newHeader = mapHeader(newChannel);
+        MappedByteBuffer newSegments[] = mapSegments(newChannel, newCapacity);
+
+        byte slotBytes[] = new byte[SLOT_SIZE];
+        int mask = newCapacity - 1;
+        for (int slot = 0; slot < capacity; slot++) {
+            ByteBuffer segment = segment(slot);
+            int pos = position(slot);
+            int keyLength = segment.getInt(pos + SLOT_KEY_LENGTH);
+            if (keyLength == 0) {
+                continue;
+            }
+
+            byte key[] = new byte[keyLength];
+            for (int i = 0; i < keyLength; i++) {
+                key[i] = segment.get(pos + SLOT_KEY + i);
+            }
+
+            int newSlot = hash(key) & mask;
+            while (newSegments[newSlot / SLOTS_PER_SEGMENT].getInt(position(newSlot) + SLOT_KEY_LENGTH) != 0) {
+                newSlot = (newSlot + 1) & mask;
+            }
+
+            ByteBuffer source = segment.duplicate();
+            source.position(pos);
+            source.get(slotBytes);
+            ByteBuffer target = newSegments[newSlot / SLOTS_PER_SEGMENT].duplicate();
+            target.position(position(newSlot));
+            target.put(slotBytes);
+        }
+
+        newHeader.putInt(HEADER_SIZE_FIELD, size);
+        newHeader.putInt(HEADER_DIRTY, 1);
+        newChannel.force(true);
+
+        Files.move(newFile.toPath(), new File(directory, INDEX_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        indexChannel.close();
+
+        indexChannel = newChannel;
+        header = newHeader;
+        segments = newSegments;
+        capacity = newCapacity;
+    }
+
+    /* Index file */
+
+    private static FileChannel createIndex(File file, int capacity) throws IOException {
+        RandomAccessFile indexFile = new RandomAccessFile(file, "rw");
+        indexFile.setLength(0);
+        indexFile.setLength(HEADER_SIZE + (long)capacity * SLOT_SIZE);
+
+        FileChannel channel = indexFile.getChannel();
+        MappedByteBuffer newHeader = mapHeader(channel);
+        newHeader.putInt(HEADER_MAGIC, INDEX_MAGIC);
+        newHeader.putInt(HEADER_VERSION, INDEX_VERSION);
+        newHeader.putInt(HEADER_CAPACITY, capacity);
+        newHeader.putInt(HEADER_SIZE_FIELD, 0);
+        newHeader.putLong(HEADER_LOG_POSITION, 0);
+        newHeader.putInt(HEADER_DIRTY, 1);
+        return channel;
+    }
+
+    private static MappedByteBuffer mapHeader(FileChannel channel) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+    }
+
+    private static MappedByteBuffer[] mapSegments(FileChannel channel, int capacity) throws IOException {
+        int count = (capacity + SLOTS_PER_SEGMENT - 1) / SLOTS_PER_SEGMENT;
+        MappedByteBuffer result[] = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            int slots = Math.min(SLOTS_PER_SEGMENT, capacity - i * SLOTS_PER_SEGMENT);
+            result[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_SIZE + (long)i * SLOTS_PER_SEGMENT * SLOT_SIZE, (long)slots * SLOT_SIZE);
+        }
+        return result;
+    }
+
+    private void markDirty() {
+        if (!dirty) {
+            synchronized (logLock) {
+                if (!dirty) {
+                    header.putInt(HEADER_DIRTY, 1);
+                    header.force();
+                    dirty = true;
+                }
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        File indexFile = new File(directory, INDEX_FILE);
+        logSize = logChannel.size();
+
+        if (indexFile.isFile()) {
+            indexChannel = new RandomAccessFile(indexFile, "rw").getChannel();
+            if (indexChannel.size() >= HEADER_SIZE) {
+                header = mapHeader(indexChannel);
+                capacity = header.getInt(HEADER_CAPACITY);
+
+                boolean clean = header.getInt(HEADER_MAGIC) == INDEX_MAGIC &&
+                        header.getInt(HEADER_VERSION) == INDEX_VERSION &&
+                        header.getInt(HEADER_DIRTY) == 0 &&
+                        capacity > 0 && Integer.bitCount(capacity) == 1 &&
+                        indexChannel.size() == HEADER_SIZE + (long)capacity * SLOT_SIZE &&
+                        header.getLong(HEADER_LOG_POSITION) == logSize;
+
+                if (clean) {
+                    segments = mapSegments(indexChannel, capacity);
+                    size = header.getInt(HEADER_SIZE_FIELD);
+                    return;
+                }
+            }
+            indexChannel.close();
+        }
+
+        // The index cannot be trusted, rebuild it from the log
+        capacity = INITIAL_CAPACITY;
+        size = 0;
+        indexChannel = createIndex(indexFile, capacity);
+        header = mapHeader(indexChannel);
+        segments = mapSegments(indexChannel, capacity);
+        dirty = true;
+
+        long offset = 0;
+        while (offset < logSize) {
+            Record record = readRecord(offset);
+            if (record == null) {
+                if (!isTornTail(offset)) {
+                    // Truncating here would throw away every valid record after the damaged one
+                    throw new IOException("Corrupt bucket log at " + offset);
+                }
+                // Torn write at the end of the log
+                logChannel.truncate(offset);
+                logSize = offset;
+                break;
+            }
+
+            byte key[] = record.fingerPrint.getBytes(UTF8);
+            int slot = find(key);
+            if (slot < 0) {
+                slot = insert(key);
+            }
+            apply(segment(slot), position(slot), offset, record.timestamp,
+                    (record.flags & RECORD_NEW_VERSION) != 0);
+
+            offset += RECORD_HEADER_SIZE + record.bodyLength;
+        }
+
+        flush();
+    }
+
+    /* Log records */
+
+    private static class Record {
+        int bodyLength;
+        byte flags;
+        long timestamp;
+        long prevVersionRecord;
+        String fingerPrint;
+        String appVersion;
+        String samplePath;
+    }
+
+    private long appendRecord(byte flags, long timestamp, long prevVersionRecord, byte key[], String appVersion,
+                              String samplePath) throws IOException {
+        byte version[] = appVersion.getBytes(UTF8);
+        byte path[] = samplePath.getBytes(UTF8);
+        if (version.length > 0xffff || path.length > 0xffff) {
+            throw new IllegalArgumentException("App version and sample path must be under 64KB");
+        }
+
+        int bodyLength = 1 + 8 + 8 + 2 + key.length + 2 + version.length + 2 + path.length;
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + bodyLength);
+        buffer.putInt(bodyLength);
+        buffer.putInt(0);
+        buffer.put(flags);
+        buffer.putLong(timestamp);
+        buffer.putLong(prevVersionRecord);
+        buffer.putShort((short)key.length).put(key);
+        buffer.putShort((short)version.length).put(version);
+        buffer.putShort((short)path.length).put(path);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), RECORD_HEADER_SIZE, bodyLength);
+        buffer.putInt(4, (int)crc.getValue());
+        buffer.flip();
+
+        synchronized (logLock) {
+            long offset = logSize;
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                position += logChannel.write(buffer, position);
+            }
+            logSize = position;
+            return offset;
+        }
+    }
+
+    /*
+     * Whether the unreadable record at offset is the last one in the log, cut short by a crash while appending:
+     * either the rest of the log can't hold a record at all or the record's length reaches the end of the log.
+     */
+    private boolean isTornTail(long offset) throws IOException {
+        long remaining = logSize - offset;
+        if (remaining < RECORD_HEADER_SIZE + MIN_BODY_LENGTH) {
+            return true;
+        }
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        if (!readFully(recordHeader, offset)) {
+            return true;
+        }
+        int bodyLength = recordHeader.getInt(0);
+        return bodyLength >= MIN_BODY_LENGTH && bodyLength <= MAX_BODY_LENGTH
+                && RECORD_HEADER_SIZE + (long)bodyLength >= remaining;
+    }
+
+    /*
+     * Reads a record that the index refers to, which must be intact.
+     */
+    private Record readValidRecord(long offset) throws IOException {
+        Record record = readRecord(offset);
+        if (record == null) {
+            throw new IOException("Corrupt bucket log at " + offset);
+        }
+        return record;
+    }
+
+    /**
+     * Reads the record at offset, or returns null if it is incomplete or corrupt.
+     */
+    private Record readRecord(long offset) throws IOException {
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        if (!readFully(recordHeader, offset)) {
+            return null;
+        }
+        int bodyLength = recordHeader.getInt(0);
+        int expectedCrc = recordHeader.getInt(4);
+        if (bodyLength < MIN_BODY_LENGTH || bodyLength > MAX_BODY_LENGTH) {
+            return null;
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(bodyLength);
+        if (!readFully(body, offset + RECORD_HEADER_SIZE)) {
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(body.array(), 0, bodyLength);
+        if ((int)crc.getValue() != expectedCrc) {
+            return null;
+        }
+
+        body.flip();
+        Record record = new Record();
+        record.bodyLength = bodyLength;
+        record.flags = body.get();
+        record.timestamp = body.getLong();
+        record.prevVersionRecord = body.getLong();
+        record.fingerPrint = readString(body);
+        record.appVersion = readString(body);
+        record.samplePath = readString(body);
+        return record;
+    }
+
+    private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = logChannel.read(buffer, position);
+            if (n < 0) {
+                return false;
+            }
+            position += n;
+        }
+        return true;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        String s = new String(buffer.array(), buffer.position(), length, UTF8);
+        buffer.position(buffer.position() + length);
+        return s;
+    }
+}
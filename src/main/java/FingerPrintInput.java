@@ -0,0 +1,180 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport.Thread;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everything any FingerPrintStrategy reads from a report, so reports can be bucketed again under a new strategy
+ * without decoding them.
+ *
+ * Holds the top MAX_FRAMES frames of the crashed thread as image short name, image base address and pc offset,
+ * and the signal and exception text used when no thread crashed.  A frame outside every image has the name "???"
+ * and zero base and offset, as in the fingerprint text.  A record written with writeTo() is typically a few hundred
+ * bytes: each distinct image name is stored once.
+ */
+public final class FingerPrintInput {
+    /** Crashed thread frames kept, and so the largest frame count a strategy can use on saved inputs */
+    public static final int MAX_FRAMES = 32;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int RECORD_VERSION = 1;
+    private static final int MAX_STRING_LENGTH = 16 << 20;
+
+    private final boolean crashedThread;
+    private final String imageNames[];
+    private final long baseAddresses[];
+    private final long offsets[];
+    private final String signal;
+    private final String exception;
+
+    FingerPrintInput(boolean crashedThread, String imageNames[], long baseAddresses[], long offsets[], String signal,
+                     String exception) {
+        this.crashedThread = crashedThread;
+        this.imageNames = imageNames;
+        this.baseAddresses = baseAddresses;
+        this.offsets = offsets;
+        this.signal = signal;
+        this.exception = exception;
+    }
+
+    static FingerPrintInput from(PlCrashReporterAnalyzer analyzer) {
+        Thread thread = analyzer.getCrashedThread();
+        int count = thread != null ? Math.min(thread.getFramesCount(), MAX_FRAMES) : 0;
+        String names[] = new String[count];
+        long bases[] = new long[count];
+        long offsets[] = new long[count];
+
+        BinaryImageIndex images = analyzer.getImageIndex();
+        for (int i = 0; i < count; i++) {
+            long pc = thread.getFrames(i).getPc();
+            int idx = images.indexOf(pc);
+            if (idx >= 0) {
+                String name = images.getName(idx);
+                names[i] = name.substring(name.lastIndexOf('/') + 1);
+                bases[i] = images.getBaseAddress(idx);
+                offsets[i] = pc - bases[i];
+            } else {
+                names[i] = PlCrashReporterAnalyzer.unknownString;
+            }
+        }
+        return new FingerPrintInput(thread != null, names, bases, offsets,
+                analyzer.getSignalString(), analyzer.getExceptionString());
+    }
+
+    public boolean hasCrashedThread() {
+        return crashedThread;
+    }
+
+    public int getFrameCount() {
+        return offsets.length;
+    }
+
+    public String getImageName(int idx) {
+        return imageNames[idx];
+    }
+
+    public long getBaseAddress(int idx) {
+        return baseAddresses[idx];
+    }
+
+    public long getOffset(int idx) {
+        return offsets[idx];
+    }
+
+    /** Signal text as in the rendered report */
+    public String getSignalString() {
+        return signal;
+    }
+
+    /** Exception text as in the rendered report, or empty */
+    public String getExceptionString() {
+        return exception;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(RECORD_VERSION);
+        out.writeBoolean(crashedThread);
+        out.writeByte(offsets.length);
+
+        List<String> names = new ArrayList<String>();
+        for (String name : imageNames) {
+            if (!names.contains(name)) {
+                names.add(name);
+            }
+        }
+        out.writeByte(names.size());
+        for (String name : names) {
+            writeString(out, name);
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            out.writeByte(names.indexOf(imageNames[i]));
+            out.writeLong(baseAddresses[i]);
+            out.writeLong(offsets[i]);
+        }
+
+        writeString(out, signal);
+        writeString(out, exception);
+    }
+
+    /**
+     * Reads a record written by writeTo(), or returns null if in is at its end.
+     */
+    public static FingerPrintInput readFrom(DataInput in) throws IOException {
+        int version;
+        try {
+            version = in.readUnsignedByte();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (version != RECORD_VERSION) {
+            throw new IOException("Unsupported fingerprint input version " + version);
+        }
+
+        boolean crashedThread = in.readBoolean();
+        int count = in.readUnsignedByte();
+        String names[] = new String[in.readUnsignedByte()];
+        if (count > MAX_FRAMES || names.length > count) {
+            throw new IOException("Corrupt fingerprint input");
+        }
+        for (int i = 0; i < names.length; i++) {
+            names[i] = readString(in);
+        }
+
+        String imageNames[] = new String[count];
+        long bases[] = new long[count];
+        long offsets[] = new long[count];
+        for (int i = 0; i < count; i++) {
+            int name = in.readUnsignedByte();
+            if (name >= names.length) {
+                throw new IOException("Corrupt fingerprint input");
+            }
+            imageNames[i] = names[name];
+            bases[i] = in.readLong();
+            offsets[i] = in.readLong();
+        }
+        return new FingerPrintInput(crashedThread, imageNames, bases, offsets, readString(in), readString(in));
+    }
+
+    private static void writeString(DataOutput out, String s) throws IOException {
+        byte bytes[] = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_LENGTH) {
+            throw new IOException("Corrupt fingerprint input");
+        }
+        byte bytes[] = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+}
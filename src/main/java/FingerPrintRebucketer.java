@@ -0,0 +1,196 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Works out how buckets change between two fingerprint strategies from saved FingerPrintInput records, without
+ * decoding any report.
+ *
+ * Records are read in batches on the calling thread and fingerprinted under both strategies on a fork-join pool.
+ * Each batch counts its own old to new pairs and adds them to the result once, so workers barely contend.  At most
+ * maxInFlight batches are queued or running at once.  Records only keep FingerPrintInput.MAX_FRAMES frames, so a
+ * strategy using more is rejected with IllegalArgumentException.
+ */
+public class FingerPrintRebucketer {
+    private static final int BATCH_SIZE = 1024;
+
+    private final int parallelism;
+    private final int maxInFlight;
+    private final CrashFingerPrinter fingerPrinter;
+
+    public FingerPrintRebucketer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public FingerPrintRebucketer(int parallelism) {
+        this(parallelism, parallelism * 2, CrashFingerPrinter.SHA1);
+    }
+
+    public FingerPrintRebucketer(int parallelism, int maxInFlight, CrashFingerPrinter fingerPrinter) {
+        if (parallelism < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("parallelism and maxInFlight must be positive");
+        }
+        this.parallelism = parallelism;
+        this.maxInFlight = maxInFlight;
+        this.fingerPrinter = fingerPrinter;
+    }
+
+    public static class Result {
+        private final Map<String, Map<String, Long>> mapping;
+        private final long recordCount;
+        private final long elapsedNanos;
+
+        Result(Map<String, Map<String, Long>> mapping, long recordCount, long elapsedNanos) {
+            this.mapping = Collections.unmodifiableMap(mapping);
+            this.recordCount = recordCount;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /** For each old bucket, the number of its reports that fall in each new bucket */
+        public Map<String, Map<String, Long>> getMapping() { return mapping; }
+        public long getRecordCount() { return recordCount; }
+        public long getElapsedNanos() { return elapsedNanos; }
+
+        public int getNewBucketCount() {
+            Set<String> buckets = new HashSet<String>();
+            for (Map<String, Long> targets : mapping.values()) {
+                buckets.addAll(targets.keySet());
+            }
+            return buckets.size();
+        }
+    }
+
+    /**
+     * Re-buckets the records written one after another with FingerPrintInput.writeTo() to in.
+     */
+    public Result rebucket(InputStream in, FingerPrintStrategy oldStrategy, FingerPrintStrategy newStrategy)
+            throws IOException, InterruptedException {
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+        return rebucket(new RecordSource() {
+            public FingerPrintInput next() throws IOException {
+                return FingerPrintInput.readFrom(input);
+            }
+        }, oldStrategy, newStrategy);
+    }
+
+    public Result rebucket(Iterable<FingerPrintInput> inputs, FingerPrintStrategy oldStrategy,
+                           FingerPrintStrategy newStrategy) throws InterruptedException {
+        final Iterator<FingerPrintInput> it = inputs.iterator();
+        try {
+            return rebucket(new RecordSource() {
+                public FingerPrintInput next() {
+                    return it.hasNext() ? it.next() : null;
+                }
+            }, oldStrategy, newStrategy);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private interface RecordSource {
+        FingerPrintInput next() throws IOException;
+    }
+
+    private Result rebucket(RecordSource source, final FingerPrintStrategy oldStrategy,
+                            final FingerPrintStrategy newStrategy) throws IOException, InterruptedException {
+        CrashFingerPrinter.checkSavedInputStrategy(oldStrategy);
+        CrashFingerPrinter.checkSavedInputStrategy(newStrategy);
+        final Map<String, Map<String, Long>> mapping = new HashMap<String, Map<String, Long>>();
+        final Semaphore inFlight = new Semaphore(maxInFlight);
+        final RuntimeException failure[] = new RuntimeException[1];
+        long records = 0;
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            while (true) {
+                final List<FingerPrintInput> batch = new ArrayList<FingerPrintInput>(BATCH_SIZE);
+                FingerPrintInput input;
+                while (batch.size() < BATCH_SIZE && (input = source.next()) != null) {
+                    batch.add(input);
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+                records += batch.size();
+
+                inFlight.acquire();
+                pool.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            Map<String, Map<String, long[]>> counts = new HashMap<String, Map<String, long[]>>();
+                            for (FingerPrintInput input : batch) {
+                                String oldBucket = fingerPrinter.getFingerPrint(input, oldStrategy);
+                                String newBucket = fingerPrinter.getFingerPrint(input, newStrategy);
+
+                                Map<String, long[]> targets = counts.get(oldBucket);
+                                if (targets == null) {
+                                    targets = new HashMap<String, long[]>();
+                                    counts.put(oldBucket, targets);
+                                }
+                                long count[] = targets.get(newBucket);
+                                if (count == null) {
+                                    targets.put(newBucket, new long[] { 1 });
+                                } else {
+                                    count[0]++;
+                                }
+                            }
+                            merge(mapping, counts);
+                        } catch (RuntimeException e) {
+                            synchronized (failure) {
+                                failure[0] = e;
+                            }
+                        } finally {
+                            inFlight.release();
+                        }
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            // Wait for the remaining batches to finish
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+        synchronized (mapping) {
+            return new Result(mapping, records, System.nanoTime() - start);
+        }
+    }
+
+    private static void merge(Map<String, Map<String, Long>> mapping, Map<String, Map<String, long[]>> counts) {
+        synchronized (mapping) {
+            for (Map.Entry<String, Map<String, long[]>> entry : counts.entrySet()) {
+                Map<String, Long> targets = mapping.get(entry.getKey());
+                if (targets == null) {
+                    targets = new HashMap<String, Long>();
+                    mapping.put(entry.getKey(), targets);
+                }
+                for (Map.Entry<String, long[]> target : entry.getValue().entrySet()) {
+                    Long count = targets.get(target.getKey());
+                    targets.put(target.getKey(), (count == null ? 0 : count) + target.getValue()[0]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+/**
+ * What goes into a crash fingerprint.
+ *
+ * A report with a crashed thread is fingerprinted from its top frameCount frames, each written as a line of the
+ * included fields in the order "index image 0xbase + offset".  A report without one is fingerprinted from its
+ * signal and exception text as chosen by the fallback.  DEFAULT gives the fingerprints this library has always
+ * produced.
+ *
+ * Instances are immutable; start from DEFAULT and adjust with the with* methods.
+ */
+public final class FingerPrintStrategy {
+    public enum Fallback {
+        /** The signal text followed by the exception text, if any */
+        SIGNAL_AND_EXCEPTION,
+        /** The signal text only */
+        SIGNAL,
+        /** The exception text, or the signal text for reports without an exception */
+        EXCEPTION
+    }
+
+    public static final FingerPrintStrategy DEFAULT = new FingerPrintStrategy(
+            PlCrashReporterAnalyzer.NUM_FINGERPRINT_FRAMES, true, true, true, true, Fallback.SIGNAL_AND_EXCEPTION);
+
+    private final int frameCount;
+    private final boolean frameIndex;
+    private final boolean imageName;
+    private final boolean baseAddress;
+    private final boolean offset;
+    private final Fallback fallback;
+
+    public FingerPrintStrategy(int frameCount, boolean frameIndex, boolean imageName, boolean baseAddress,
+                               boolean offset, Fallback fallback) {
+        if (frameCount < 1) {
+            throw new IllegalArgumentException("frameCount must be positive");
+        }
+        if (fallback == null) {
+            throw new NullPointerException("fallback");
+        }
+        this.frameCount = frameCount;
+        this.frameIndex = frameIndex;
+        this.imageName = imageName;
+        this.baseAddress = baseAddress;
+        this.offset = offset;
+        this.fallback = fallback;
+    }
+
+    public int getFrameCount() { return frameCount; }
+    public boolean includesFrameIndex() { return frameIndex; }
+    public boolean includesImageName() { return imageName; }
+    public boolean includesBaseAddress() { return baseAddress; }
+    public boolean includesOffset() { return offset; }
+    public Fallback getFallback() { return fallback; }
+
+    public FingerPrintStrategy withFrameCount(int frameCount) {
+        return new FingerPrintStrategy(frameCount, frameIndex, imageName, baseAddress, offset, fallback);
+    }
+
+    public FingerPrintStrategy withFrameIndex(boolean frameIndex) {
+        return new FingerPrintStrategy(frameCount, frameIndex, imageName, baseAddress, offset, fallback);
+    }
+
+    public FingerPrintStrategy withImageName(boolean imageName) {
+        return new FingerPrintStrategy(frameCount, frameIndex, imageName, baseAddress, offset, fallback);
+    }
+
+    public FingerPrintStrategy withBaseAddress(boolean baseAddress) {
+        return new FingerPrintStrategy(frameCount, frameIndex, imageName, baseAddress, offset, fallback);
+    }
+
+    public FingerPrintStrategy withOffset(boolean offset) {
+        return new FingerPrintStrategy(frameCount, frameIndex, imageName, baseAddress, offset, fallback);
+    }
+
+    public FingerPrintStrategy withFallback(Fallback fallback) {
+        return new FingerPrintStrategy(frameCount, frameIndex, imageName, baseAddress, offset, fallback);
+    }
+}
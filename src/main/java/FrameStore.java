@@ -0,0 +1,362 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport.Thread;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stack frames of many reports in primitive columns, for queries such as "which buckets have a frame in this
+ * image between these offsets" without decoding any report again.
+ *
+ * Every frame of every thread is one row holding the report id, thread number, frame index, image id and pc
+ * offset into the image.  Rows live in direct buffers of SEGMENT_ROWS rows, one column after another, so the
+ * columns take no Java heap and are never copied as the store grows.  Images are identified by their UUID, or by
+ * their name when they have none, and numbered in order of first appearance; frames outside every image have
+ * image id -1 and the pc as offset.
+ *
+ * For each image an inverted index holds its rows sorted by offset, in primitive arrays, so a range query is two
+ * binary searches.  Rows are appended to the index unsorted and sorted into it by the next query that touches the
+ * image.  Methods are synchronized; add() resolves the frames of a report before taking the lock.
+ */
+public class FrameStore {
+    public static final int SEGMENT_ROWS = 1 << 20;
+
+    /* Column offsets within a segment, in bytes */
+    private static final int REPORT_COLUMN = 0;
+    private static final int THREAD_COLUMN = REPORT_COLUMN + 4 * SEGMENT_ROWS;
+    private static final int FRAME_COLUMN = THREAD_COLUMN + 4 * SEGMENT_ROWS;
+    private static final int IMAGE_COLUMN = FRAME_COLUMN + 4 * SEGMENT_ROWS;
+    private static final int OFFSET_COLUMN = IMAGE_COLUMN + 4 * SEGMENT_ROWS;
+    private static final int SEGMENT_BYTES = OFFSET_COLUMN + 8 * SEGMENT_ROWS;
+
+    private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+    private int rows;
+
+    private final Map<String, Integer> imageIds = new HashMap<String, Integer>();
+    private final List<String> imageKeys = new ArrayList<String>();
+    private final List<Postings> postings = new ArrayList<Postings>();
+
+    private final Map<String, Integer> bucketIds = new HashMap<String, Integer>();
+    private final List<String> bucketKeys = new ArrayList<String>();
+    private int reportBuckets[] = new int[1024];
+    private int reports;
+
+    /**
+     * Records every frame of the report and returns its id.  fingerPrint may be null if the report is not bucketed.
+     */
+    public int add(PlCrashReporterAnalyzer analyzer, String fingerPrint) {
+        BinaryImageIndex images = analyzer.getImageIndex();
+        List<Thread> threads = analyzer.getReport().getThreadsList();
+
+        int frameCount = 0;
+        for (Thread thread : threads) {
+            frameCount += thread.getFramesCount();
+        }
+
+        // Resolve the frames before taking the lock; image positions are mapped to store ids under it
+        String keys[] = new String[images.size()];
+        int threadNumbers[] = new int[frameCount];
+        int frameIndexes[] = new int[frameCount];
+        int imageIndexes[] = new int[frameCount];
+        long offsets[] = new long[frameCount];
+        int n = 0;
+        for (Thread thread : threads) {
+            for (int i = 0; i < thread.getFramesCount(); i++) {
+                long pc = thread.getFrames(i).getPc();
+                int idx = images.indexOf(pc);
+                if (idx >= 0 && keys[idx] == null) {
+                    String uuid = analyzer.getImageInfo(idx).getSymbolUuid();
+                    keys[idx] = uuid != null ? uuid : images.getName(idx);
+                }
+                threadNumbers[n] = thread.getThreadNumber();
+                frameIndexes[n] = i;
+                imageIndexes[n] = idx;
+                offsets[n] = idx >= 0 ? pc - images.getBaseAddress(idx) : pc;
+                n++;
+            }
+        }
+
+        synchronized (this) {
+            int report = reports;
+            if (report == reportBuckets.length) {
+                reportBuckets = Arrays.copyOf(reportBuckets, report * 2);
+            }
+            reportBuckets[report] = fingerPrint != null ? intern(bucketIds, bucketKeys, fingerPrint) : -1;
+            reports++;
+
+            int ids[] = new int[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                ids[i] = keys[i] != null ? internImage(keys[i]) : -1;
+            }
+
+            for (int i = 0; i < frameCount; i++) {
+                int image = imageIndexes[i] >= 0 ? ids[imageIndexes[i]] : -1;
+                int row = append(report, threadNumbers[i], frameIndexes[i], image, offsets[i]);
+                if (image >= 0) {
+                    postings.get(image).add(offsets[i], row);
+                }
+            }
+            return report;
+        }
+    }
+
+    public synchronized int getRowCount() {
+        return rows;
+    }
+
+    public synchronized int getReportCount() {
+        return reports;
+    }
+
+    public synchronized int getImageCount() {
+        return imageKeys.size();
+    }
+
+    /**
+     * Returns the id of the image with the given UUID, as 32 hex digits, or name, or -1 if no frame was in it.
+     */
+    public synchronized int getImageId(String key) {
+        Integer id = imageIds.get(key);
+        return id != null ? id : -1;
+    }
+
+    public synchronized String getImageKey(int imageId) {
+        return imageKeys.get(imageId);
+    }
+
+    public synchronized int getReportId(int row) {
+        return segment(row).getInt(REPORT_COLUMN + 4 * (row % SEGMENT_ROWS));
+    }
+
+    public synchronized int getThreadNumber(int row) {
+        return segment(row).getInt(THREAD_COLUMN + 4 * (row % SEGMENT_ROWS));
+    }
+
+    public synchronized int getFrameIndex(int row) {
+        return segment(row).getInt(FRAME_COLUMN + 4 * (row % SEGMENT_ROWS));
+    }
+
+    public synchronized int getImageId(int row) {
+        return segment(row).getInt(IMAGE_COLUMN + 4 * (row % SEGMENT_ROWS));
+    }
+
+    public synchronized long getOffset(int row) {
+        return segment(row).getLong(OFFSET_COLUMN + 8 * (row % SEGMENT_ROWS));
+    }
+
+    /**
+     * Returns the fingerprint the report was added with, or null.
+     */
+    public synchronized String getFingerPrint(int report) {
+        if (report < 0 || report >= reports) {
+            throw new IndexOutOfBoundsException("No report " + report);
+        }
+        int bucket = reportBuckets[report];
+        return bucket >= 0 ? bucketKeys.get(bucket) : null;
+    }
+
+    /**
+     * Returns the rows of frames in the image at offsets in [fromOffset, toOffset), in offset order.
+     */
+    public synchronized int[] findFrames(String image, long fromOffset, long toOffset) {
+        Integer id = imageIds.get(image);
+        if (id == null) {
+            return new int[0];
+        }
+        Postings p = postings.get(id);
+        p.sort();
+        int from = p.lowerBound(fromOffset);
+        int to = Math.max(from, p.lowerBound(toOffset));
+        return Arrays.copyOfRange(p.rows, from, to);
+    }
+
+    /**
+     * Returns the ids of reports with a frame in the image at offsets in [fromOffset, toOffset), in ascending order.
+     */
+    public synchronized int[] findReports(String image, long fromOffset, long toOffset) {
+        int found[] = findFrames(image, fromOffset, toOffset);
+        for (int i = 0; i < found.length; i++) {
+            int row = found[i];
+            found[i] = segments.get(row / SEGMENT_ROWS).getInt(REPORT_COLUMN + 4 * (row % SEGMENT_ROWS));
+        }
+        Arrays.sort(found);
+
+        int distinct = 0;
+        for (int i = 0; i < found.length; i++) {
+            if (distinct == 0 || found[distinct - 1] != found[i]) {
+                found[distinct++] = found[i];
+            }
+        }
+        return Arrays.copyOf(found, distinct);
+    }
+
+    /**
+     * Returns the fingerprints of reports with a frame in the image at offsets in [fromOffset, toOffset).
+     */
+    public synchronized Set<String> findBuckets(String image, long fromOffset, long toOffset) {
+        Set<String> buckets = new LinkedHashSet<String>();
+        for (int report : findReports(image, fromOffset, toOffset)) {
+            int bucket = reportBuckets[report];
+            if (bucket >= 0) {
+                buckets.add(bucketKeys.get(bucket));
+            }
+        }
+        return buckets;
+    }
+
+    private int append(int report, int threadNumber, int frameIdx, int image, long offset) {
+        int row = rows;
+        if (row == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Frame store is full");
+        }
+        if (row % SEGMENT_ROWS == 0 && row / SEGMENT_ROWS == segments.size()) {
+            segments.add(ByteBuffer.allocateDirect(SEGMENT_BYTES));
+        }
+        ByteBuffer segment = segments.get(row / SEGMENT_ROWS);
+        int idx = row % SEGMENT_ROWS;
+        segment.putInt(REPORT_COLUMN + 4 * idx, report);
+        segment.putInt(THREAD_COLUMN + 4 * idx, threadNumber);
+        segment.putInt(FRAME_COLUMN + 4 * idx, frameIdx);
+        segment.putInt(IMAGE_COLUMN + 4 * idx, image);
+        segment.putLong(OFFSET_COLUMN + 8 * idx, offset);
+        rows++;
+        return row;
+    }
+
+    private ByteBuffer segment(int row) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("No row " + row);
+        }
+        return segments.get(row / SEGMENT_ROWS);
+    }
+
+    private int internImage(String key) {
+        int id = intern(imageIds, imageKeys, key);
+        if (id == postings.size()) {
+            postings.add(new Postings());
+        }
+        return id;
+    }
+
+    private static int intern(Map<String, Integer> ids, List<String> keys, String key) {
+        Integer id = ids.get(key);
+        if (id == null) {
+            id = keys.size();
+            ids.put(key, id);
+            keys.add(key);
+        }
+        return id;
+    }
+
+    /*
+     * Rows of one image sorted by offset.  Entries past sorted were appended since the last query and are merged
+     * in by sort().
+     */
+    private static final class Postings {
+        long offsets[] = new long[8];
+        int rows[] = new int[8];
+        int size;
+        int sorted;
+
+        void add(long offset, int row) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            offsets[size] = offset;
+            rows[size] = row;
+            size++;
+        }
+
+        void sort() {
+            if (sorted == size) {
+                return;
+            }
+            quickSort(offsets, rows, sorted, size - 1);
+
+            // Merge the sorted tail into the sorted prefix from the back, so only the tail needs copying
+            long tailOffsets[] = Arrays.copyOfRange(offsets, sorted, size);
+            int tailRows[] = Arrays.copyOfRange(rows, sorted, size);
+            int i = sorted - 1;
+            int j = tailOffsets.length - 1;
+            int k = size - 1;
+            while (j >= 0) {
+                if (i >= 0 && offsets[i] > tailOffsets[j]) {
+                    offsets[k] = offsets[i];
+                    rows[k--] = rows[i--];
+                } else {
+                    offsets[k] = tailOffsets[j];
+                    rows[k--] = tailRows[j--];
+                }
+            }
+            sorted = size;
+        }
+
+        /* First position whose offset is not below offset */
+        int lowerBound(long offset) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (offsets[mid] < offset) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private static void quickSort(long keys[], int values[], int lo, int hi) {
+            while (hi - lo > 16) {
+                long pivot = median(keys[lo], keys[(lo + hi) >>> 1], keys[hi]);
+                int i = lo;
+                int j = hi;
+                while (i <= j) {
+                    while (keys[i] < pivot) {
+                        i++;
+                    }
+                    while (keys[j] > pivot) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        swap(keys, values, i++, j--);
+                    }
+                }
+                // Recurse into the smaller side so the stack stays logarithmic
+                if (j - lo < hi - i) {
+                    quickSort(keys, values, lo, j);
+                    lo = i;
+                } else {
+                    quickSort(keys, values, i, hi);
+                    hi = j;
+                }
+            }
+            for (int i = lo + 1; i <= hi; i++) {
+                for (int j = i; j > lo && keys[j - 1] > keys[j]; j--) {
+                    swap(keys, values, j - 1, j);
+                }
+            }
+        }
+
+        private static long median(long a, long b, long c) {
+            return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+        }
+
+        private static void swap(long keys[], int values[], int a, int b) {
+            long key = keys[a];
+            keys[a] = keys[b];
+            keys[b] = key;
+            int value = values[a];
+            values[a] = values[b];
+            values[b] = value;
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Approximate most frequent strings of a stream in fixed memory.
+ *
+ * Every string is counted in a Count-Min sketch, which gives an upper bound on the count of any string.  A
+ * Space-Saving summary tracks the k strings that look most frequent, each with an upper bound capped by the sketch
+ * and a lower bound from the occurrences seen while tracked.  A string only displaces the least frequent tracked
+ * one once its sketch estimate is higher, so a long tail of rare strings does not churn frequent ones out of the
+ * summary.  Both structures are mergeable: merge() combines the state of two instances with the same dimensions
+ * so that it summarizes both streams, whether they came from other threads or, through writeTo() and readFrom(),
+ * other machines.
+ *
+ * Instances are not thread safe; give each worker its own and merge them at the end.
+ */
+public class HeavyHitters {
+    private static final int FORMAT_VERSION = 1;
+
+    /* Largest summary accepted, so a corrupt stream can't make readFrom() allocate gigabytes */
+    public static final int MAX_K = 1 << 20;
+    public static final int MAX_SKETCH_CELLS = 1 << 24;
+
+    private final int k;
+    private final int width;
+    private final int depth;
+    private final long sketch[];
+    private long total;
+
+    /* Space-Saving entries as a binary min-heap on count */
+    private final String keys[];
+    private final long counts[];
+    private final long errors[];
+    private final Map<String, Integer> positions;
+    private int size;
+    /* Whether a string has ever been dropped from the summary, after which new entries may have been seen before */
+    private boolean dropped;
+
+    public HeavyHitters(int k) {
+        this(k, 2048, 4);
+    }
+
+    /**
+     * Count-Min estimates are within 2.7 * total / width of the true count with probability 1 - 0.37 ^ depth.
+     */
+    public HeavyHitters(int k, int width, int depth) {
+        if (!isValidSize(k, width, depth)) {
+            throw new IllegalArgumentException("k, width and depth must be positive, k at most " + MAX_K
+                    + " and width * depth at most " + MAX_SKETCH_CELLS);
+        }
+        this.k = k;
+        this.width = width;
+        this.depth = depth;
+        this.sketch = new long[width * depth];
+        this.keys = new String[k];
+        this.counts = new long[k];
+        this.errors = new long[k];
+        this.positions = new HashMap<String, Integer>(k * 2);
+    }
+
+    /**
+     * An estimated count: count is an upper bound on the true count and count - error a lower bound.
+     */
+    public static class Entry {
+        private final String key;
+        private final long count;
+        private final long error;
+
+        Entry(String key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String getKey() { return key; }
+        public long getCount() { return count; }
+        public long getError() { return error; }
+
+        @Override
+        public String toString() {
+            return key + "=" + count + (error > 0 ? " (error " + error + ")" : "");
+        }
+    }
+
+    public void add(String key) {
+        add(key, 1);
+    }
+
+    public void add(String key, long count) {
+        total += count;
+        long hash = hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int cell = cell(hash, row);
+            sketch[cell] += count;
+            estimate = Math.min(estimate, sketch[cell]);
+        }
+
+        Integer position = positions.get(key);
+        if (position != null) {
+            counts[position] += count;
+            siftDown(position);
+        } else if (size < k) {
+            long upper = dropped ? estimate : count;
+            insert(key, upper, upper - count);
+        } else if (estimate > counts[0]) {
+            // Space-Saving would give the newcomer the minimum count plus its own, the sketch may bound it lower
+            long upper = Math.min(counts[0] + count, estimate);
+            positions.remove(keys[0]);
+            keys[0] = key;
+            counts[0] = upper;
+            errors[0] = upper - count;
+            positions.put(key, 0);
+            siftDown(0);
+            dropped = true;
+        } else {
+            dropped = true;
+        }
+    }
+
+    /**
+     * Count-Min estimate for any key, tracked or not.
+     */
+    public long estimate(String key) {
+        long hash = hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, sketch[cell(hash, row)]);
+        }
+        return estimate;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns up to n of the most frequent keys, most frequent first.
+     */
+    public List<Entry> top(int n) {
+        List<Entry> entries = new ArrayList<Entry>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(new Entry(keys[i], counts[i], errors[i]));
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                return Long.compare(b.count, a.count);
+            }
+        });
+        return entries.subList(0, Math.min(n, entries.size()));
+    }
+
+    /**
+     * Adds the state of other, which must have the same k, width and depth, to this instance.
+     */
+    public void merge(HeavyHitters other) {
+        if (other.k != k || other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("Can only merge instances with the same dimensions");
+        }
+
+        for (int i = 0; i < sketch.length; i++) {
+            sketch[i] += other.sketch[i];
+        }
+        total += other.total;
+
+        // A key missing from a full summary may have occurred up to that summary's minimum count times
+        long thisMin = size == k ? counts[0] : 0;
+        long otherMin = other.size == other.k ? other.counts[0] : 0;
+
+        // Upper and lower bounds of every key tracked by either summary
+        Map<String, long[]> merged = new HashMap<String, long[]>(size + other.size);
+        for (int i = 0; i < size; i++) {
+            merged.put(keys[i], new long[] { counts[i] + otherMin, counts[i] - errors[i] });
+        }
+        for (int i = 0; i < other.size; i++) {
+            long bounds[] = merged.get(other.keys[i]);
+            if (bounds == null) {
+                merged.put(other.keys[i], new long[] { other.counts[i] + thisMin, other.counts[i] - other.errors[i] });
+            } else {
+                bounds[0] += other.counts[i] - otherMin;
+                bounds[1] += other.counts[i] - other.errors[i];
+            }
+        }
+        for (Map.Entry<String, long[]> entry : merged.entrySet()) {
+            long bounds[] = entry.getValue();
+            bounds[0] = Math.min(bounds[0], estimate(entry.getKey()));
+        }
+
+        List<Map.Entry<String, long[]>> entries = new ArrayList<Map.Entry<String, long[]>>(merged.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, long[]>>() {
+            public int compare(Map.Entry<String, long[]> a, Map.Entry<String, long[]> b) {
+                return Long.compare(b.getValue()[0], a.getValue()[0]);
+            }
+        });
+
+        dropped |= other.dropped || entries.size() > k;
+        positions.clear();
+        size = 0;
+        for (Map.Entry<String, long[]> entry : entries.subList(0, Math.min(k, entries.size()))) {
+            long bounds[] = entry.getValue();
+            insert(entry.getKey(), bounds[0], bounds[0] - bounds[1]);
+        }
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(k);
+        out.writeInt(width);
+        out.writeInt(depth);
+        out.writeLong(total);
+        out.writeBoolean(dropped);
+        for (long cell : sketch) {
+            out.writeLong(cell);
+        }
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeUTF(keys[i]);
+            out.writeLong(counts[i]);
+            out.writeLong(errors[i]);
+        }
+    }
+
+    private static boolean isValidSize(int k, int width, int depth) {
+        return k >= 1 && k <= MAX_K && width >= 1 && depth >= 1 && (long)width * depth <= MAX_SKETCH_CELLS;
+    }
+
+    public static HeavyHitters readFrom(DataInput in) throws IOException {
+        if (in.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unsupported heavy hitters format");
+        }
+        int k = in.readInt();
+        int width = in.readInt();
+        int depth = in.readInt();
+        if (!isValidSize(k, width, depth)) {
+            throw new IOException("Corrupt heavy hitters summary");
+        }
+        HeavyHitters hitters = new HeavyHitters(k, width, depth);
+        hitters.total = in.readLong();
+        hitters.dropped = in.readBoolean();
+        for (int i = 0; i < hitters.sketch.length; i++) {
+            hitters.sketch[i] = in.readLong();
+        }
+        int size = in.readInt();
+        if (size < 0 || size > hitters.k) {
+            throw new IOException("Corrupt heavy hitters summary");
+        }
+        for (int i = 0; i < size; i++) {
+            String key = in.readUTF();
+            long count = in.readLong();
+            long error = in.readLong();
+            if (hitters.positions.containsKey(key) || error < 0 || error > count) {
+                throw new IOException("Corrupt heavy hitters summary");
+            }
+            hitters.insert(key, count, error);
+        }
+        return hitters;
+    }
+
+    private void insert(String key, long count, long error) {
+        keys[size] = key;
+        counts[size] = count;
+        errors[size] = error;
+        positions.put(key, size);
+        siftUp(size++);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (counts[parent] <= counts[i]) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && counts[child + 1] < counts[child]) {
+                child++;
+            }
+            if (counts[i] <= counts[child]) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int a, int b) {
+        String key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+        long count = counts[a];
+        counts[a] = counts[b];
+        counts[b] = count;
+        long error = errors[a];
+        errors[a] = errors[b];
+        errors[b] = error;
+        positions.put(keys[a], a);
+        positions.put(keys[b], b);
+    }
+
+    private int cell(long hash, int row) {
+        long h = (hash >>> 32) + row * (hash & 0xffffffffL);
+        return row * width + (int)((h & Long.MAX_VALUE) % width);
+    }
+
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+}
@@ -0,0 +1,14 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a dump does not start with a valid plcrash file header.
+ */
+public class InvalidCrashReportException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public InvalidCrashReportException() {
+        super("Invalid Crash Report");
+    }
+}
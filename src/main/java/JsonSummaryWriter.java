@@ -0,0 +1,178 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport;
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport.Thread;
+
+import java.io.IOException;
+
+/**
+ * Writes a report summary as a single line of JSON, straight from the decoded report:
+ *
+ *   {"process":{...},"system":{...},"signal":{...},"exception":{...},
+ *    "crashedThread":{"number":n,"frames":[{"pc":"0x...","image":"UIKit","offset":n},...],
+ *                     "registers":[{"name":"r0","value":"0x..."},...]},
+ *    "images":[{"base":"0x...","size":n,"name":"...","arch":"armv7","uuid":"..."},...]}
+ *
+ * Addresses are hex strings as they do not fit a JSON number.  exception and crashedThread are left out when
+ * the report has none, as are the image and offset of frames outside every image.
+ */
+public final class JsonSummaryWriter {
+    private static final char HEX_DIGITS[] = "0123456789abcdef".toCharArray();
+
+    private JsonSummaryWriter() { }
+
+    public static String toJson(PlCrashReporterAnalyzer analyzer) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            write(analyzer, sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the summary followed by a newline, so summaries of many reports can be written as JSON lines.
+     */
+    public static void write(PlCrashReporterAnalyzer analyzer, Appendable out) throws IOException {
+        CrashReport report = analyzer.getReport();
+        CrashReport.ProcessInfo process = report.getProcessInfo();
+        CrashReport.SystemInfo system = report.getSystemInfo();
+
+        out.append("{\"process\":{");
+        if (report.hasProcessInfo()) {
+            field(out, "name", process.getProcessName(), true);
+            field(out, "id", process.getProcessId(), false);
+            field(out, "path", process.hasProcessPath() ? process.getProcessPath() : null, false);
+            field(out, "parentName", process.getParentProcessName(), false);
+            field(out, "parentId", process.getParentProcessId(), false);
+            out.append(',');
+        }
+        field(out, "identifier", report.getApplicationInfo().getIdentifier(), true);
+        field(out, "version", report.getApplicationInfo().getVersion(), false);
+
+        out.append("},\"system\":{");
+        field(out, "os", analyzer.getOperatingSystem(), true);
+        field(out, "osVersion", system.getOsVersion(), false);
+        field(out, "osBuild", system.hasOsBuild() ? system.getOsBuild() : null, false);
+        field(out, "hardwareModel", analyzer.getHardwareModel(), false);
+        field(out, "codeType", analyzer.getCodeType(), false);
+        field(out, "timestamp", system.getTimestamp(), false);
+
+        out.append("},\"signal\":{");
+        field(out, "name", report.getSignal().getName(), true);
+        field(out, "code", report.getSignal().getCode(), false);
+        hexField(out, "address", report.getSignal().getAddress(), false);
+        out.append('}');
+
+        if (report.hasException()) {
+            out.append(",\"exception\":{");
+            field(out, "name", report.getException().getName(), true);
+            field(out, "reason", report.getException().getReason(), false);
+            out.append('}');
+        }
+
+        BinaryImageIndex images = analyzer.getImageIndex();
+        Thread crashed = analyzer.getCrashedThread();
+        if (crashed != null) {
+            out.append(",\"crashedThread\":{");
+            field(out, "number", crashed.getThreadNumber(), true);
+            out.append(",\"frames\":[");
+            for (int i = 0; i < crashed.getFramesCount(); i++) {
+                long pc = crashed.getFrames(i).getPc();
+                out.append(i == 0 ? "{" : ",{");
+                hexField(out, "pc", pc, true);
+                int imageIdx = images.indexOf(pc);
+                if (imageIdx >= 0) {
+                    field(out, "image", analyzer.getImageInfo(imageIdx).getShortName(), false);
+                    field(out, "offset", pc - images.getBaseAddress(imageIdx), false);
+                }
+                out.append('}');
+            }
+            out.append("],\"registers\":[");
+            for (int i = 0; i < crashed.getRegistersCount(); i++) {
+                out.append(i == 0 ? "{" : ",{");
+                field(out, "name", crashed.getRegisters(i).getName(), true);
+                hexField(out, "value", crashed.getRegisters(i).getValue(), false);
+                out.append('}');
+            }
+            out.append("]}");
+        }
+
+        out.append(",\"images\":[");
+        for (int i = 0; i < images.size(); i++) {
+            BinaryImageInfo info = analyzer.getImageInfo(i);
+            out.append(i == 0 ? "{" : ",{");
+            hexField(out, "base", images.getBaseAddress(i), true);
+            field(out, "size", images.getImage(i).getSize(), false);
+            field(out, "name", images.getName(i), false);
+            field(out, "arch", info.getArchName(), false);
+            field(out, "uuid", info.getSymbolUuid(), false);
+            out.append('}');
+        }
+        out.append("]}\n");
+    }
+
+    private static void name(Appendable out, String name, boolean first) throws IOException {
+        if (!first) {
+            out.append(',');
+        }
+        out.append('"').append(name).append("\":");
+    }
+
+    private static void field(Appendable out, String name, String value, boolean first) throws IOException {
+        name(out, name, first);
+        if (value == null) {
+            out.append("null");
+        } else {
+            string(out, value);
+        }
+    }
+
+    private static void field(Appendable out, String name, long value, boolean first) throws IOException {
+        name(out, name, first);
+        ReportFormat.decimal(out, value);
+    }
+
+    private static void hexField(Appendable out, String name, long value, boolean first) throws IOException {
+        name(out, name, first);
+        out.append("\"0x");
+        ReportFormat.hex(out, value, 1);
+        out.append('"');
+    }
+
+    private static void string(Appendable out, String value) throws IOException {
+        out.append('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+
+            out.append(value, start, i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    out.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xf]);
+            }
+            start = i + 1;
+        }
+        out.append(value, start, value.length());
+        out.append('"');
+    }
+}
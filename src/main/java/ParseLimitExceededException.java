@@ -0,0 +1,36 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a dump goes over one of the limits of a ParseLimits policy.
+ */
+public class ParseLimitExceededException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public enum Limit {
+        FILE_SIZE,
+        THREADS,
+        FRAMES_PER_THREAD,
+        IMAGES,
+        STRING_LENGTH,
+        CPU_TIME
+    }
+
+    private final Limit limit;
+    private final long maximum;
+
+    public ParseLimitExceededException(Limit limit, long maximum) {
+        super(limit + " limit of " + maximum + " exceeded");
+        this.limit = limit;
+        this.maximum = maximum;
+    }
+
+    public Limit getLimit() {
+        return limit;
+    }
+
+    public long getMaximum() {
+        return maximum;
+    }
+}
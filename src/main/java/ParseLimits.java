@@ -0,0 +1,182 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.WireFormat;
+import coop.plausible.crashreporter.CrashReport_pb.CrashReport;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+
+/**
+ * Limits on the size of a dump and of what it contains, for reports from untrusted sources.
+ *
+ * Before a report is decoded its wire format is walked once against the CrashReport schema, counting threads,
+ * frames and images and checking the length of every string and bytes field, without building any messages.
+ * The first limit crossed stops the walk with a ParseLimitExceededException, so a dump claiming millions of
+ * threads costs no more than reading up to the first thread over the limit.  The CPU time limit covers the walk
+ * and the decode that follows it; it is measured as thread CPU time where the JVM supports it and elapsed time
+ * otherwise.
+ *
+ * Instances are immutable; start from DEFAULT or NONE and adjust with the with* methods.
+ */
+public final class ParseLimits {
+    /** Generous limits that no genuine report comes near */
+    public static final ParseLimits DEFAULT = new ParseLimits(64L << 20, 4096, 4096, 8192, 64 << 10, 5000000000L);
+
+    /** No limits beyond those of the file format */
+    public static final ParseLimits NONE = new ParseLimits(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE,
+            Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+
+    /* Fields walked between checks of the CPU time limit */
+    private static final int CPU_CHECK_INTERVAL = 1024;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean THREAD_CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported();
+
+    private static final FieldDescriptor THREADS_FIELD =
+            CrashReport.getDescriptor().findFieldByNumber(CrashReport.THREADS_FIELD_NUMBER);
+    private static final FieldDescriptor FRAMES_FIELD =
+            CrashReport.Thread.getDescriptor().findFieldByNumber(CrashReport.Thread.FRAMES_FIELD_NUMBER);
+    private static final FieldDescriptor IMAGES_FIELD =
+            CrashReport.getDescriptor().findFieldByNumber(CrashReport.BINARY_IMAGES_FIELD_NUMBER);
+
+    private final long maxFileSize;
+    private final int maxThreads;
+    private final int maxFramesPerThread;
+    private final int maxImages;
+    private final int maxStringLength;
+    private final long maxCpuNanos;
+
+    public ParseLimits(long maxFileSize, int maxThreads, int maxFramesPerThread, int maxImages, int maxStringLength,
+                       long maxCpuNanos) {
+        if (maxFileSize < 0 || maxThreads < 0 || maxFramesPerThread < 0 || maxImages < 0 || maxStringLength < 0
+                || maxCpuNanos < 0) {
+            throw new IllegalArgumentException("Limits must not be negative");
+        }
+        this.maxFileSize = maxFileSize;
+        this.maxThreads = maxThreads;
+        this.maxFramesPerThread = maxFramesPerThread;
+        this.maxImages = maxImages;
+        this.maxStringLength = maxStringLength;
+        this.maxCpuNanos = maxCpuNanos;
+    }
+
+    public long getMaxFileSize() { return maxFileSize; }
+    public int getMaxThreads() { return maxThreads; }
+    public int getMaxFramesPerThread() { return maxFramesPerThread; }
+    public int getMaxImages() { return maxImages; }
+    public int getMaxStringLength() { return maxStringLength; }
+    public long getMaxCpuNanos() { return maxCpuNanos; }
+
+    public ParseLimits withMaxFileSize(long maxFileSize) {
+        return new ParseLimits(maxFileSize, maxThreads, maxFramesPerThread, maxImages, maxStringLength, maxCpuNanos);
+    }
+
+    public ParseLimits withMaxThreads(int maxThreads) {
+        return new ParseLimits(maxFileSize, maxThreads, maxFramesPerThread, maxImages, maxStringLength, maxCpuNanos);
+    }
+
+    public ParseLimits withMaxFramesPerThread(int maxFramesPerThread) {
+        return new ParseLimits(maxFileSize, maxThreads, maxFramesPerThread, maxImages, maxStringLength, maxCpuNanos);
+    }
+
+    public ParseLimits withMaxImages(int maxImages) {
+        return new ParseLimits(maxFileSize, maxThreads, maxFramesPerThread, maxImages, maxStringLength, maxCpuNanos);
+    }
+
+    public ParseLimits withMaxStringLength(int maxStringLength) {
+        return new ParseLimits(maxFileSize, maxThreads, maxFramesPerThread, maxImages, maxStringLength, maxCpuNanos);
+    }
+
+    public ParseLimits withMaxCpuNanos(long maxCpuNanos) {
+        return new ParseLimits(maxFileSize, maxThreads, maxFramesPerThread, maxImages, maxStringLength, maxCpuNanos);
+    }
+
+    void checkFileSize(long size) throws ParseLimitExceededException {
+        if (size > maxFileSize) {
+            throw new ParseLimitExceededException(ParseLimitExceededException.Limit.FILE_SIZE, maxFileSize);
+        }
+    }
+
+    /**
+     * Returns the value that checkCpuTime() measures from.
+     */
+    static long cpuTime() {
+        return THREAD_CPU_TIME ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    void checkCpuTime(long start) throws ParseLimitExceededException {
+        if (maxCpuNanos != Long.MAX_VALUE && cpuTime() - start > maxCpuNanos) {
+            throw new ParseLimitExceededException(ParseLimitExceededException.Limit.CPU_TIME, maxCpuNanos);
+        }
+    }
+
+    /**
+     * Checks the report in buffer, whose header has already been checked, against the limits.  The CPU time is
+     * measured from cpuStart.
+     */
+    void validate(ByteBuffer buffer, long cpuStart) throws IOException {
+        checkFileSize(buffer.remaining());
+        new Walk(cpuStart).message(PlCrashReporterAnalyzer.newPayloadInput(buffer), CrashReport.getDescriptor());
+    }
+
+    private final class Walk {
+        private final long cpuStart;
+        private int fields;
+
+        Walk(long cpuStart) {
+            this.cpuStart = cpuStart;
+        }
+
+        void message(CodedInputStream input, Descriptor type) throws IOException {
+            int threads = 0;
+            int frames = 0;
+            int images = 0;
+
+            int tag;
+            while ((tag = input.readTag()) != 0) {
+                if (++fields % CPU_CHECK_INTERVAL == 0) {
+                    checkCpuTime(cpuStart);
+                }
+
+                FieldDescriptor field = type.findFieldByNumber(WireFormat.getTagFieldNumber(tag));
+                if (field == null || (tag & 7) != WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                    if (!input.skipField(tag)) {
+                        return;
+                    }
+                    continue;
+                }
+
+                if (field == THREADS_FIELD && ++threads > maxThreads) {
+                    throw new ParseLimitExceededException(ParseLimitExceededException.Limit.THREADS, maxThreads);
+                }
+                if (field == FRAMES_FIELD && ++frames > maxFramesPerThread) {
+                    throw new ParseLimitExceededException(ParseLimitExceededException.Limit.FRAMES_PER_THREAD,
+                            maxFramesPerThread);
+                }
+                if (field == IMAGES_FIELD && ++images > maxImages) {
+                    throw new ParseLimitExceededException(ParseLimitExceededException.Limit.IMAGES, maxImages);
+                }
+
+                int length = input.readRawVarint32();
+                if (field.getType() == FieldDescriptor.Type.MESSAGE) {
+                    int limit = input.pushLimit(length);
+                    message(input, field.getMessageType());
+                    input.popLimit(limit);
+                } else {
+                    boolean string = field.getType() == FieldDescriptor.Type.STRING
+                            || field.getType() == FieldDescriptor.Type.BYTES;
+                    if (string && length > maxStringLength) {
+                        throw new ParseLimitExceededException(ParseLimitExceededException.Limit.STRING_LENGTH,
+                                maxStringLength);
+                    }
+                    input.skipRawBytes(length);
+                }
+            }
+        }
+    }
+}
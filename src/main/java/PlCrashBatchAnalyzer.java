@@ -0,0 +1,232 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parses and fingerprints many .plcrash files on a fork-join pool.
+ *
+ * At most maxInFlight reports are loaded at any one time, so memory use does not grow with the size of the
+ * input.  Reports are checked against ParseLimits.DEFAULT unless other limits are given, so a corrupt dump is
+ * rejected quickly instead of holding up a worker.  A failure only affects the file that caused it and is
+ * recorded in the result.  Given a FrameStore, the frames of every report are recorded in it along with the
+ * fingerprint in the same pass.
+ */
+public class PlCrashBatchAnalyzer {
+    public static final String FILE_EXTENSION = ".plcrash";
+
+    private final int parallelism;
+    private final int maxInFlight;
+    private final ParseLimits limits;
+    private final FrameStore frameStore;
+    private final BinaryImageInterner imageInterner = new BinaryImageInterner();
+
+    public PlCrashBatchAnalyzer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public PlCrashBatchAnalyzer(int parallelism) {
+        this(parallelism, parallelism * 4);
+    }
+
+    public PlCrashBatchAnalyzer(int parallelism, int maxInFlight) {
+        this(parallelism, maxInFlight, ParseLimits.DEFAULT);
+    }
+
+    public PlCrashBatchAnalyzer(int parallelism, int maxInFlight, ParseLimits limits) {
+        this(parallelism, maxInFlight, limits, null);
+    }
+
+    public PlCrashBatchAnalyzer(int parallelism, int maxInFlight, ParseLimits limits, FrameStore frameStore) {
+        if (parallelism < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("parallelism and maxInFlight must be positive");
+        }
+        this.parallelism = parallelism;
+        this.maxInFlight = maxInFlight;
+        this.limits = limits;
+        this.frameStore = frameStore;
+    }
+
+    /**
+     * Image display values shared by every report this analyzer loads.
+     */
+    public BinaryImageInterner getImageInterner() {
+        return imageInterner;
+    }
+
+    public static class Bucket {
+        private final String fingerPrint;
+        private final String samplePath;
+        private final AtomicLong count = new AtomicLong();
+
+        Bucket(String fingerPrint, String samplePath) {
+            this.fingerPrint = fingerPrint;
+            this.samplePath = samplePath;
+        }
+
+        public String getFingerPrint() { return fingerPrint; }
+        public String getSamplePath() { return samplePath; }
+        public long getCount() { return count.get(); }
+    }
+
+    public static class Failure {
+        private final String path;
+        private final Exception cause;
+
+        Failure(String path, Exception cause) {
+            this.path = path;
+            this.cause = cause;
+        }
+
+        public String getPath() { return path; }
+        public Exception getCause() { return cause; }
+    }
+
+    public static class Result {
+        private final Map<String, Bucket> buckets;
+        private final List<Failure> invalidReports;
+        private final List<Failure> invalidProtobufs;
+        private final List<Failure> limitFailures;
+        private final List<Failure> otherFailures;
+        private final long filesProcessed;
+        private final long bytesProcessed;
+        private final long elapsedNanos;
+
+        Result(Map<String, Bucket> buckets, List<Failure> invalidReports, List<Failure> invalidProtobufs,
+               List<Failure> limitFailures, List<Failure> otherFailures, long filesProcessed, long bytesProcessed,
+               long elapsedNanos) {
+            this.buckets = Collections.unmodifiableMap(buckets);
+            this.invalidReports = Collections.unmodifiableList(invalidReports);
+            this.invalidProtobufs = Collections.unmodifiableList(invalidProtobufs);
+            this.limitFailures = Collections.unmodifiableList(limitFailures);
+            this.otherFailures = Collections.unmodifiableList(otherFailures);
+            this.filesProcessed = filesProcessed;
+            this.bytesProcessed = bytesProcessed;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /** Buckets keyed by crash fingerprint */
+        public Map<String, Bucket> getBuckets() { return buckets; }
+        /** Files rejected because of a bad plcrash header */
+        public List<Failure> getInvalidReports() { return invalidReports; }
+        /** Files with a valid header whose protobuf payload could not be decoded */
+        public List<Failure> getInvalidProtobufs() { return invalidProtobufs; }
+        /** Files rejected for going over a parse limit; the cause is a ParseLimitExceededException */
+        public List<Failure> getLimitFailures() { return limitFailures; }
+        /** Files that could not be read or fingerprinted for any other reason */
+        public List<Failure> getOtherFailures() { return otherFailures; }
+
+        public long getFilesProcessed() { return filesProcessed; }
+        public long getBytesProcessed() { return bytesProcessed; }
+        public long getElapsedNanos() { return elapsedNanos; }
+
+        public double getFilesPerSecond() {
+            return elapsedNanos == 0 ? 0 : filesProcessed * 1e9 / elapsedNanos;
+        }
+
+        public double getMegabytesPerSecond() {
+            return elapsedNanos == 0 ? 0 : (bytesProcessed / (1024.0 * 1024.0)) * 1e9 / elapsedNanos;
+        }
+    }
+
+    /**
+     * Analyzes every *.plcrash file directly inside directory.
+     */
+    public Result analyzeDirectory(File directory) throws IOException, InterruptedException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath(), "*" + FILE_EXTENSION)) {
+            return analyze(Iterables.transform(stream, new Function<Path, String>() {
+                public String apply(Path path) {
+                    return path.toString();
+                }
+            }));
+        }
+    }
+
+    public Result analyze(Iterable<String> paths) throws InterruptedException {
+        final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+        final ConcurrentLinkedQueue<Failure> invalidReports = new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<Failure> invalidProtobufs = new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<Failure> limitFailures = new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<Failure> otherFailures = new ConcurrentLinkedQueue<>();
+        final AtomicLong filesProcessed = new AtomicLong();
+        final AtomicLong bytesProcessed = new AtomicLong();
+        final Semaphore inFlight = new Semaphore(maxInFlight);
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (final String path : paths) {
+                inFlight.acquire();
+                pool.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            bytesProcessed.addAndGet(new File(path).length());
+
+                            PlCrashReporterAnalyzer analyzer = new PlCrashReporterAnalyzer(
+                                    PlCrashReporterAnalyzer.readFile(path, false, limits), imageInterner, limits);
+                            String fingerPrint = analyzer.getCrashFingerPrint();
+                            if (frameStore != null) {
+                                frameStore.add(analyzer, fingerPrint);
+                            }
+
+                            Bucket bucket = buckets.get(fingerPrint);
+                            if (bucket == null) {
+                                Bucket newBucket = new Bucket(fingerPrint, path);
+                                bucket = buckets.putIfAbsent(fingerPrint, newBucket);
+                                if (bucket == null) {
+                                    bucket = newBucket;
+                                }
+                            }
+                            bucket.count.incrementAndGet();
+                        } catch (InvalidCrashReportException e) {
+                            invalidReports.add(new Failure(path, e));
+                        } catch (InvalidProtocolBufferException e) {
+                            invalidProtobufs.add(new Failure(path, e));
+                        } catch (ParseLimitExceededException e) {
+                            limitFailures.add(new Failure(path, e));
+                        } catch (Exception e) {
+                            otherFailures.add(new Failure(path, e));
+                        } finally {
+                            filesProcessed.incrementAndGet();
+                            inFlight.release();
+                        }
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        // Wait for the remaining tasks to finish
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+        return new Result(buckets,
+                new ArrayList<>(invalidReports),
+                new ArrayList<>(invalidProtobufs),
+                new ArrayList<>(limitFailures),
+                new ArrayList<>(otherFailures),
+                filesProcessed.get(),
+                bytesProcessed.get(),
+                System.nanoTime() - start);
+    }
+}
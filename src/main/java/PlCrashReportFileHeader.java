@@ -12,6 +12,10 @@ import java.nio.CharBuffer;
  * To change this template use File | Settings | File Templates.
  */
 public class PlCrashReportFileHeader {
+    public static final int HEADER_SIZE = 8;
+    private static final byte MAGIC[] = { 'p', 'l', 'c', 'r', 'a', 's', 'h' };
+    private static final byte VERSION = 1;
+
     private String magic;
     private byte version;
     private byte data[];
@@ -23,8 +27,8 @@ public class PlCrashReportFileHeader {
 
         buffer.rewind();
 
-        byte magic[] = new byte[7];
-        buffer.get(magic, 0, 7);
+        byte magic[] = new byte[MAGIC.length];
+        buffer.get(magic, 0, MAGIC.length);
 
         header.magic = new String(magic);
         header.version = buffer.get();
@@ -35,7 +39,33 @@ public class PlCrashReportFileHeader {
     }
 
     public Boolean isValid() {
-        return this.magic.equals("plcrash") && (this.version == 1);
+        return this.magic.equals("plcrash") && (this.version == VERSION);
+    }
+
+    /**
+     * Checks the magic and version at the start of buffer without copying anything out of it.
+     * The buffer's position and limit are not changed.
+     */
+    public static boolean isValid(ByteBuffer buffer) {
+        if (buffer.limit() < HEADER_SIZE) {
+            return false;
+        }
+
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.get(i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return buffer.get(MAGIC.length) == VERSION;
+    }
+
+    /**
+     * Returns a view of the report data following the header.  The contents are shared with buffer, not copied.
+     */
+    public static ByteBuffer getPayload(ByteBuffer buffer) {
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(HEADER_SIZE);
+        return payload.slice();
     }
 
     public byte[] getData() {
@@ -1,10 +1,8 @@
 package com.wyntersoft.crashreporteranalyzer;
 
-import javax.xml.bind.annotation.adapters.HexBinaryAdapter;
-import com.google.common.base.Function;
-import com.google.common.collect.Ordering;
 import com.wyntersoft.crashreporteranalyzer.*;
 
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
 import coop.plausible.crashreporter.CrashReport_pb;
 import coop.plausible.crashreporter.CrashReport_pb.CrashReport.BinaryImage;
@@ -15,15 +13,13 @@ import coop.plausible.crashreporter.CrashReport_pb.CrashReport.Processor;
 
 import java.io.*;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.CharBuffer;
 import java.nio.channels.FileChannel;
-import java.security.MessageDigest;
+import java.nio.charset.Charset;
 import java.security.NoSuchAlgorithmException;
 import java.util.Date;
 import java.lang.Math;
 import java.util.List;
-import java.util.UUID;
 
 /**
  * Created with IntelliJ IDEA.
@@ -32,7 +28,7 @@ import java.util.UUID;
  * Time: 8:40 AM
  */
 public class PlCrashReporterAnalyzer {
-    private final String unknownString = "???";
+    static final String unknownString = "???";
     static final int NUM_FINGERPRINT_FRAMES = 7;
     static final int CPU_ARCH_ABI64	= 0x01000000;		/* 64 bit ABI */
 
@@ -112,26 +108,84 @@ public class PlCrashReporterAnalyzer {
     }
 
     public PlCrashReporterAnalyzer(ByteBuffer buffer) throws InvalidProtocolBufferException, IOException {
-        InitFromByteBuffer(buffer);
+        InitFromByteBuffer(buffer, null);
+    }
+
+    /**
+     * Rejects the report with a ParseLimitExceededException if it goes over any of limits.
+     */
+    public PlCrashReporterAnalyzer(ByteBuffer buffer, ParseLimits limits)
+            throws InvalidProtocolBufferException, IOException {
+        InitFromByteBuffer(buffer, limits);
+    }
+
+    /**
+     * Shares image display values with other reports through imageInterner, for batches of reports from the
+     * same application.
+     */
+    public PlCrashReporterAnalyzer(ByteBuffer buffer, BinaryImageInterner imageInterner)
+            throws InvalidProtocolBufferException, IOException {
+        this(buffer, imageInterner, null);
+    }
+
+    public PlCrashReporterAnalyzer(ByteBuffer buffer, BinaryImageInterner imageInterner, ParseLimits limits)
+            throws InvalidProtocolBufferException, IOException {
+        this.imageInterner = imageInterner;
+        InitFromByteBuffer(buffer, limits);
     }
 
     public PlCrashReporterAnalyzer(byte[] buffer) throws Exception
     {
-        InitFromByteBuffer(ByteBuffer.wrap(buffer));
+        InitFromByteBuffer(ByteBuffer.wrap(buffer), null);
     }
 
     public PlCrashReporterAnalyzer(String path) throws Exception {
-        FileChannel inChannel = new RandomAccessFile(path, "r").getChannel();
+        this(path, false);
+    }
 
-        if (inChannel.size() > Integer.MAX_VALUE) {
-            throw new IOException("Dump file too large");
-        }
+    /**
+     * Loads the report at path.  With memoryMap set the file is mapped rather than read onto the heap and the
+     * protobuf parser reads straight from the mapping.
+     */
+    public PlCrashReporterAnalyzer(String path, boolean memoryMap) throws Exception {
+        InitFromByteBuffer(readFile(path, memoryMap), null);
+    }
+
+    /**
+     * Loads the report at path, checking the file size against limits before anything is read.
+     */
+    public PlCrashReporterAnalyzer(String path, boolean memoryMap, ParseLimits limits) throws IOException {
+        InitFromByteBuffer(readFile(path, memoryMap, limits), limits);
+    }
+
+    static ByteBuffer readFile(String path, boolean memoryMap) throws IOException {
+        return readFile(path, memoryMap, null);
+    }
+
+    static ByteBuffer readFile(String path, boolean memoryMap, ParseLimits limits) throws IOException {
+        FileChannel inChannel = new RandomAccessFile(path, "r").getChannel();
 
-        ByteBuffer buffer = ByteBuffer.allocate((int)inChannel.size());
-        int nBytesRead = inChannel.read(buffer);
-        inChannel.close();
+        ByteBuffer buffer;
+        try {
+            if (inChannel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Dump file too large");
+            }
+            if (limits != null) {
+                limits.checkFileSize(inChannel.size());
+            }
 
-        InitFromByteBuffer(buffer);
+            if (memoryMap) {
+                buffer = inChannel.map(FileChannel.MapMode.READ_ONLY, 0, inChannel.size());
+            } else {
+                buffer = ByteBuffer.allocate((int)inChannel.size());
+                while (buffer.hasRemaining() && inChannel.read(buffer) >= 0) {
+                }
+                buffer.flip();
+            }
+        } finally {
+            inChannel.close();
+        }
+        return buffer;
     }
 
     public String getOperatingSystem() {
@@ -154,6 +208,10 @@ public class PlCrashReporterAnalyzer {
     }
 
     public CpuType getCpuType() {
+        return cpuType;
+    }
+
+    private CpuType findCpuType() {
         for(BinaryImage image : report.getBinaryImagesList()) {
             if (!image.hasCodeType())
                 continue;
@@ -181,7 +239,11 @@ public class PlCrashReporterAnalyzer {
     }
 
     public String getCodeType() {
-        switch (getCpuType()) {
+        return codeType;
+    }
+
+    private String findCodeType() {
+        switch (cpuType) {
             case CPU_TYPE_ARM:
                 return "ARM";
             case CPU_TYPE_X86:
@@ -191,7 +253,7 @@ public class PlCrashReporterAnalyzer {
             case CPU_TYPE_POWERPC:
                 return "PPC";
         }
-        return String.format("Unknown (%d)", (int)report.getSystemInfo().getArchitecture().getNumber());
+        return String.format("Unknown (%d)", report.getSystemInfo().getArchitecture().getNumber());
     }
 
     public String getHardwareModel() {
@@ -201,315 +263,419 @@ public class PlCrashReporterAnalyzer {
         return unknownString;
     }
 
+    public String getApplicationVersion() {
+        return report.getApplicationInfo().getVersion();
+    }
+
+    /**
+     * Time of the crash in seconds since the epoch.
+     */
+    public long getTimestamp() {
+        return report.getSystemInfo().getTimestamp();
+    }
+
     public String getCrashReport() {
+        return getCrashReport(null);
+    }
+
+    /**
+     * Returns the crash report with frames resolved to symbol names where symbolicator has a table for the image.
+     */
+    public String getCrashReport(Symbolicator symbolicator) {
         StringBuilder sb = new StringBuilder();
+        try {
+            writeCrashReport(sb, symbolicator);
+        } catch (IOException e) {
+            // StringBuilder never throws
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the same text as getCrashReport() to out using UTF-8.
+     */
+    public void writeCrashReport(OutputStream out) throws IOException {
+        writeCrashReport(out, Charset.forName("UTF-8"));
+    }
+
+    public void writeCrashReport(OutputStream out, Charset charset) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, charset));
+        writeCrashReport(writer);
+        writer.flush();
+    }
+
+    /**
+     * Writes the same text as getCrashReport() to out without building the report in memory first.
+     */
+    public void writeCrashReport(Appendable out) throws IOException {
+        writeCrashReport(out, null);
+    }
+
+    public void writeCrashReport(Appendable out, Symbolicator symbolicator) throws IOException {
+        long start = AnalyzerMetrics.ENABLED ? System.nanoTime() : 0;
+
         // Preamble
-        sb.append("Incident Identifier:   [TODO]\n")
-          .append("CrashReporter Key:     [TODO]\n");
+        out.append("Incident Identifier:   [TODO]\n")
+           .append("CrashReporter Key:     [TODO]\n");
 
         // Machine info
-        sb.append(String.format("Hardware Model:        %s\n",getHardwareModel()));
+        out.append("Hardware Model:        ").append(getHardwareModel()).append('\n');
 
         // Process Info
         String processName = unknownString;
-        String processId = unknownString;
-        String processPath = unknownString;
         String parentProcessName = unknownString;
-        String parentProcessId = unknownString;
+        String processPath = unknownString;
         if (report.hasProcessInfo()) {
             if (report.getProcessInfo().getProcessName() != null)
                 processName = report.getProcessInfo().getProcessName();
 
-            processId = String.format("%d", report.getProcessInfo().getProcessId());
-
             if (report.getProcessInfo().hasProcessPath())
                 processPath = report.getProcessInfo().getProcessPath();
 
             if (report.getProcessInfo().getParentProcessName() != null)
                 parentProcessName = report.getProcessInfo().getParentProcessName();
-
-            parentProcessId = String.format("%d", report.getProcessInfo().getParentProcessId());
         }
 
-        sb.append(String.format("Process:               %s [%s]\n", processName, processId))
-          .append(String.format("Path:                  %s\n", processPath))
-          .append(String.format("Identifier:            %s\n", report.getApplicationInfo().getIdentifier()))
-          .append(String.format("Version:               %s\n", report.getApplicationInfo().getVersion()))
-          .append(String.format("Code Type:             %s\n", getCodeType()))
-          .append(String.format("Parent Process         %s [%s]\n", parentProcessName, parentProcessId))
-          .append("\n");
+        out.append("Process:               ").append(processName).append(" [");
+        writeProcessId(out, false);
+        out.append("]\n")
+           .append("Path:                  ").append(processPath).append('\n')
+           .append("Identifier:            ").append(report.getApplicationInfo().getIdentifier()).append('\n')
+           .append("Version:               ").append(report.getApplicationInfo().getVersion()).append('\n')
+           .append("Code Type:             ").append(getCodeType()).append('\n')
+           .append("Parent Process         ").append(parentProcessName).append(" [");
+        writeProcessId(out, true);
+        out.append("]\n")
+           .append('\n');
 
         // System info
         String osBuild = unknownString;
         if (report.getSystemInfo().hasOsBuild())
             osBuild = report.getSystemInfo().getOsBuild();
 
-        sb.append(String.format("Date/Time:             %s\n", new Date(report.getSystemInfo().getTimestamp() * 1000)))
-          .append(String.format("OS Version:            %s %s (%s)\n", getOperatingSystem(), report.getSystemInfo().getOsVersion(), osBuild))
-          .append("Report Version:        104\n")
-          .append("\n");
+        out.append("Date/Time:             ").append(new Date(report.getSystemInfo().getTimestamp() * 1000).toString()).append('\n')
+           .append("OS Version:            ").append(getOperatingSystem()).append(' ')
+           .append(report.getSystemInfo().getOsVersion()).append(" (").append(osBuild).append(")\n")
+           .append("Report Version:        104\n")
+           .append('\n');
 
-        sb.append(getSignalString());
+        writeSignal(out);
 
         Thread crashedThread = getCrashedThread();
         if (crashedThread != null) {
-                sb.append(String.format("Crashed Thread:        %s\n", crashedThread.getThreadNumber()));
+            out.append("Crashed Thread:        ");
+            ReportFormat.decimal(out, crashedThread.getThreadNumber());
+            out.append('\n');
         }
-        sb.append("\n");
+        out.append('\n');
 
         // Uncaught Exceptions
-        sb.append(getExceptionString());
+        writeException(out);
 
         // Threads
-        int maxThreadNum = 0;
-
         for (Thread thread : report.getThreadsList()) {
-            if (thread.getCrashed()) {
-                sb.append(String.format("Thread %d Crashed:\n", thread.getThreadNumber()));
-            } else {
-                sb.append(String.format("Thread %d:\n", thread.getThreadNumber()));
-            }
+            out.append("Thread ");
+            ReportFormat.decimal(out, thread.getThreadNumber());
+            out.append(thread.getCrashed() ? " Crashed:\n" : ":\n");
 
             long frameIdx = 0;
             for(StackFrame frame : thread.getFramesList()) {
-                sb.append(getStackFrameInfo(frame, frameIdx));
+                writeStackFrameInfo(out, frame, frameIdx, symbolicator);
                 frameIdx++;
             }
 
-            maxThreadNum = Math.max(maxThreadNum, thread.getThreadNumber());
-
-            sb.append("\n");
+            out.append('\n');
         }
 
+        boolean lp64 = cpuType.isLp64();
+
         // Registers
         if (crashedThread != null) {
-            sb.append(String.format("Thread %d crashed with %s Thread State:\n", crashedThread.getThreadNumber(), getCodeType()));
+            out.append("Thread ");
+            ReportFormat.decimal(out, crashedThread.getThreadNumber());
+            out.append(" crashed with ").append(getCodeType()).append(" Thread State:\n");
+
+            /* Apple uses 'ip' rather than 'r12' on ARM */
+            boolean renameIp = false;
+            if (report.hasMachineInfo() &&
+                report.getMachineInfo().getProcessor().getEncoding() == TypeEncoding.TYPE_ENCODING_MACH) {
+
+                Processor processor = report.getMachineInfo().getProcessor();
+                renameIp = CpuType.valueOf((int)processor.getType()) == CpuType.CPU_TYPE_ARM;
+            }
 
-            boolean lp64 = getCpuType().isLp64();
             int regColumn = 0;
             for(Thread.RegisterValue register : crashedThread.getRegistersList()) {
-                String reg_fmt;
-
-                /* Use 32-bit or 64-bit fixed width format for the register values */
-                if (lp64) {
-                    reg_fmt = "%6s: 0x%016x ";
-                } else {
-                    reg_fmt = "%6s: 0x%08x ";
-                }
                 /* Remap register names to match Apple's crash reports */
                 String regName = register.getName();
-
-                if (report.hasMachineInfo() &&
-                    report.getMachineInfo().getProcessor().getEncoding() == TypeEncoding.TYPE_ENCODING_MACH) {
-
-                    Processor processor = report.getMachineInfo().getProcessor();
-                    CpuType type = CpuType.valueOf((int)processor.getType());
-
-                    /* Apple uses 'ip' rather than 'r12' on ARM */
-                    if (type == CpuType.CPU_TYPE_ARM && regName.equals("r12")) {
-                        regName = "ip";
-                    }
+                if (renameIp && regName.equals("r12")) {
+                    regName = "ip";
                 }
 
-                sb.append(String.format(reg_fmt, regName, register.getValue()));
+                /* Use 32-bit or 64-bit fixed width format for the register values */
+                ReportFormat.pad(out, regName, 6, false);
+                out.append(": 0x");
+                ReportFormat.hex(out, register.getValue(), lp64 ? 16 : 8);
+                out.append(' ');
 
                 regColumn++;
                 if (regColumn == 4) {
-                    sb.append("\n");
+                    out.append('\n');
                     regColumn = 0;
                 }
             }
 
             if (regColumn != 0) {
-                sb.append("\n");
+                out.append('\n');
             }
 
-            sb.append("\n");
+            out.append('\n');
         }
 
         /* Images. The iPhone crash report format sorts these in ascending order, by the base address */
-        sb.append("Binary Images:\n");
+        out.append("Binary Images:\n");
 
-        List<BinaryImage> imageList = Ordering.natural().onResultOf(new Function<BinaryImage, Long>() {
-            public Long apply(BinaryImage foo) {
-                return new Long(foo.getBaseAddress());
-            }
-        }).sortedCopy(report.getBinaryImagesList());
-        for (BinaryImage image : imageList) {
-            String uuid = unknownString;
-            if (image.hasUuid()) {
-                ByteBuffer uuidBytes = ByteBuffer.allocate(16);
-                image.getUuid().copyTo(uuidBytes);
-                uuidBytes.order(ByteOrder.BIG_ENDIAN);
-                uuidBytes.flip();
-                // DJW TODO Specify endianess to check
-                UUID uuid1 = new UUID(uuidBytes.asLongBuffer().get(), uuidBytes.asLongBuffer().get());
-                uuid = uuid1.toString().replace("-", "");
-            }
-
-            String archName = unknownString;
-            if (image.hasCodeType() && image.getCodeType().getEncoding() == TypeEncoding.TYPE_ENCODING_MACH) {
-
-                switch (CpuType.valueOf((int)image.getCodeType().getType())) {
-                    case CPU_TYPE_ARM:
-                        switch (CpuSubTypeArm.valueOf((int)image.getCodeType().getSubtype())) {
-                            case CPU_SUBTYPE_ARM_V6:
-                                archName = "armv6";
-                                break;
-                            case CPU_SUBTYPE_ARM_V7:
-                                archName = "armv7";
-                                break;
-                            case CPU_SUBTYPE_ARM_V7S:
-                                archName = "armv7s";
-                                break;
-                            default:
-                                archName = "arm-unknown";
-                        }
-                        break;
-                    case CPU_TYPE_X86:
-                        archName = "i386";
-                        break;
-                    case CPU_TYPE_X86_64:
-                        archName = "x86_64";
-                        break;
-                    case CPU_TYPE_POWERPC:
-                        archName = "powerpc";
-                        break;
-
-                    default:
-                        // Use the default archName value (initialized above).
-                        break;
-                }
-            }
+        String mainExecutablePath = report.getProcessInfo().getProcessPath();
+        for (int imageIdx = 0; imageIdx < imageIndex.size(); imageIdx++) {
+            BinaryImageInfo info = getImageInfo(imageIdx);
 
             /* Determine if this is the main executable */
             String binaryDesignator = " ";
-            if (image.getName().equals(report.getProcessInfo().getProcessPath()))
+            if (imageIndex.getName(imageIdx).equals(mainExecutablePath))
                 binaryDesignator = "+";
 
-            String fmt = null;
-            if(getCpuType().isLp64()) {
-                fmt = "%18#x - 0x%18#x %s%s %s  <%s> %s\n";
-            } else {
-                fmt = "%#10x - %#10x %s%s %s  <%s> %s\n";
-            }
-            sb.append(String.format(fmt,
-                    image.getBaseAddress(),
-                    image.getBaseAddress() + (Math.max(1, image.getSize())-1),
-                    binaryDesignator,
-                    getLastPathComponent(image.getName()),
-                    archName,
-                    uuid,
-                    image.getName()
-            ));
+            out.append(info.getAddressRange()).append(' ').append(binaryDesignator).append(info.getDescription());
         }
 
+        if (AnalyzerMetrics.ENABLED) {
+            AnalyzerMetrics.recordPhase(AnalyzerMetrics.Phase.RENDER, start);
+        }
+    }
 
-        return sb.toString();
+    private void writeProcessId(Appendable out, boolean parent) throws IOException {
+        if (!report.hasProcessInfo()) {
+            out.append(unknownString);
+        } else if (parent) {
+            ReportFormat.decimal(out, report.getProcessInfo().getParentProcessId());
+        } else {
+            ReportFormat.decimal(out, report.getProcessInfo().getProcessId());
+        }
     }
 
-    private String getExceptionString() {
+    String getExceptionString() {
         StringBuilder sb = new StringBuilder();
-        if (report.hasException()) {
-            sb.append("Application Specific Information:\n")
-              .append(String.format("*** Terminating app due to uncaught exception '%s', reason: '%s'\n",
-                    report.getException().getName(), report.getException().getReason()))
-              .append("\n");
+        try {
+            writeException(sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
         }
         return sb.toString();
     }
 
-    private String getStackFrameInfo(StackFrame frame, long frameIdx) {
-        String imageName = unknownString;
-        long baseAddress = 0;
-        long pcOffset = 0;
-
-        BinaryImage image = getImageForAddress(frame.getPc());
-        if (image != null) {
-            imageName = getLastPathComponent(image.getName());
-            baseAddress = image.getBaseAddress();
-            pcOffset = frame.getPc() - baseAddress;
+    private void writeException(Appendable out) throws IOException {
+        if (report.hasException()) {
+            writeException(out, report.getException().getName(), report.getException().getReason());
         }
+    }
 
-        return String.format("%-4d%-36s0x%08x 0x%x + %d\n", frameIdx, imageName, frame.getPc(), baseAddress, pcOffset);
+    static void writeException(Appendable out, String name, String reason) throws IOException {
+        out.append("Application Specific Information:\n")
+           .append("*** Terminating app due to uncaught exception '").append(name)
+           .append("', reason: '").append(reason).append("'\n")
+           .append('\n');
     }
 
-    private String getStackFrameBrief(StackFrame frame, long frameidx) {
+    /* Same text as "%-4d%-36s0x%08x 0x%x + %d\n", or "%-4d%-36s0x%08x %s + %d\n" once symbolicated */
+    private void writeStackFrameInfo(Appendable out, StackFrame frame, long frameIdx, Symbolicator symbolicator)
+            throws IOException {
         String imageName = unknownString;
+        String symbolUuid = null;
         long baseAddress = 0;
         long pcOffset = 0;
 
-        BinaryImage image = getImageForAddress(frame.getPc());
-        if (image != null) {
-            imageName = getLastPathComponent(image.getName());
-            baseAddress = image.getBaseAddress();
+        int imageIdx = imageIndex.indexOf(frame.getPc());
+        if (imageIdx >= 0) {
+            BinaryImageInfo info = getImageInfo(imageIdx);
+            imageName = info.getShortName();
+            symbolUuid = info.getSymbolUuid();
+            baseAddress = imageIndex.getBaseAddress(imageIdx);
             pcOffset = frame.getPc() - baseAddress;
         }
 
-        return String.format("%d %s 0x%x + %d\n", frameidx, imageName, baseAddress, pcOffset);
+        ReportFormat.decimal(out, frameIdx, 4, true);
+        ReportFormat.pad(out, imageName, 36, true);
+        out.append("0x");
+        ReportFormat.hex(out, frame.getPc(), 8);
+        out.append(' ');
+        if (symbolicator != null && symbolUuid != null && symbolicator.symbolicate(out, symbolUuid, pcOffset)) {
+            out.append('\n');
+            return;
+        }
+
+        out.append("0x");
+        ReportFormat.hex(out, baseAddress, 1);
+        out.append(" + ");
+        ReportFormat.decimal(out, pcOffset);
+        out.append('\n');
     }
 
     BinaryImage getImageForAddress(long address) {
-        for( BinaryImage image : report.getBinaryImagesList()) {
-            if (image.getBaseAddress() <= address && address < (image.getBaseAddress() + image.getSize()))
-                return image;
+        return imageIndex.find(address);
+    }
+
+    CrashReport_pb.CrashReport getReport() {
+        return report;
+    }
+
+    BinaryImageIndex getImageIndex() {
+        return imageIndex;
+    }
+
+    /**
+     * Display values for the image at position idx of the image index.  These are only needed to render the
+     * report, so they are built for every image the first time one is asked for.  Threads rendering at once may
+     * each build them; the array is only published once filled.
+     */
+    BinaryImageInfo getImageInfo(int idx) {
+        BinaryImageInfo infos[] = imageInfos;
+        if (infos == null) {
+            infos = new BinaryImageInfo[imageIndex.size()];
+            boolean lp64 = cpuType.isLp64();
+            for (int i = 0; i < infos.length; i++) {
+                BinaryImage image = imageIndex.getImage(i);
+                infos[i] = imageInterner != null ? imageInterner.intern(image, lp64) : new BinaryImageInfo(image, lp64);
+            }
+            imageInfos = infos;
         }
-        return null;
+        return infos[idx];
     }
 
-    private void InitFromByteBuffer(ByteBuffer buffer) throws InvalidProtocolBufferException, IOException
+    private void InitFromByteBuffer(ByteBuffer buffer, ParseLimits limits) throws InvalidProtocolBufferException, IOException
     {
-        this.header = PlCrashReportFileHeader.createFromByteBuffer(buffer);
+        CodedInputStream input = openPayload(buffer);
 
-        if (!this.header.isValid()) {
-            throw new IOException("Invalid Crash Report");
+        long cpuStart = 0;
+        if (limits != null) {
+            cpuStart = ParseLimits.cpuTime();
+            limits.validate(buffer, cpuStart);
         }
 
-        this.report = CrashReport_pb.CrashReport.parseFrom(this.header.getData());
+        long start = AnalyzerMetrics.ENABLED ? System.nanoTime() : 0;
+        try {
+            this.report = CrashReport_pb.CrashReport.parseFrom(input);
+            input.checkLastTagWas(0);
+        } catch (InvalidProtocolBufferException e) {
+            if (AnalyzerMetrics.ENABLED) {
+                AnalyzerMetrics.protobufFailure();
+            }
+            throw e;
+        }
+        if (AnalyzerMetrics.ENABLED) {
+            AnalyzerMetrics.recordPhase(AnalyzerMetrics.Phase.PARSE, start);
+            AnalyzerMetrics.reportParsed(buffer.remaining());
+        }
+        if (limits != null) {
+            limits.checkCpuTime(cpuStart);
+        }
+
+        this.imageIndex = new BinaryImageIndex(this.report.getBinaryImagesList());
+
+        // Derived values that the report and fingerprint code ask for repeatedly
+        this.cpuType = findCpuType();
+        this.codeType = findCodeType();
+        for (Thread thread : this.report.getThreadsList()) {
+            if (thread.getCrashed()) {
+                this.crashedThread = thread;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Checks the file header and returns a protobuf input over the report data that follows it.
+     */
+    static CodedInputStream openPayload(ByteBuffer buffer) throws IOException {
+        long start = AnalyzerMetrics.ENABLED ? System.nanoTime() : 0;
+        boolean valid = PlCrashReportFileHeader.isValid(buffer);
+        if (AnalyzerMetrics.ENABLED) {
+            AnalyzerMetrics.recordPhase(AnalyzerMetrics.Phase.HEADER_CHECK, start);
+            if (!valid) {
+                AnalyzerMetrics.invalidHeader();
+            }
+        }
+        if (!valid) {
+            throw new InvalidCrashReportException();
+        }
+        return newPayloadInput(buffer);
     }
 
-    private String getLastPathComponent(String path) {
-        return path.substring(path.lastIndexOf('/') + 1);
+    /**
+     * Returns a protobuf input over the report data in buffer without checking the header.
+     */
+    static CodedInputStream newPayloadInput(ByteBuffer buffer) {
+        // Parse the payload in place; heap buffers are read through their backing array and
+        // direct or mapped buffers through a stream, so the report bytes are never copied out.
+        ByteBuffer payload = PlCrashReportFileHeader.getPayload(buffer);
+        CodedInputStream input;
+        if (payload.hasArray()) {
+            input = CodedInputStream.newInstance(payload.array(), payload.arrayOffset(), payload.remaining());
+        } else {
+            input = CodedInputStream.newInstance(new ByteBufferInputStream(payload));
+            input.setSizeLimit(payload.remaining());
+        }
+        return input;
     }
 
-    private String getSignalString() {
+    String getSignalString() {
         StringBuilder sb = new StringBuilder();
-        sb.append(String.format("Exception Type:        %s\n", report.getSignal().getName()))
-          .append(String.format("Exception Codes:       %s at 0x%x\n", report.getSignal().getCode(), report.getSignal().getAddress()));
+        try {
+            writeSignal(sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
         return sb.toString();
     }
 
-    private Thread getCrashedThread() {
-        for(Thread thread : report.getThreadsList()) {
-            if (thread.getCrashed()) {
-                return thread;
-            }
-        }
-        return null;
+    private void writeSignal(Appendable out) throws IOException {
+        writeSignal(out, report.getSignal().getName(), report.getSignal().getCode(), report.getSignal().getAddress());
     }
 
-    public String getCrashFingerPrint() throws NoSuchAlgorithmException {
-        MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+    static void writeSignal(Appendable out, String name, String code, long address) throws IOException {
+        out.append("Exception Type:        ").append(name).append('\n')
+           .append("Exception Codes:       ").append(code).append(" at 0x");
+        ReportFormat.hex(out, address, 1);
+        out.append('\n');
+    }
 
-        StringBuilder sb = new StringBuilder();
+    Thread getCrashedThread() {
+        return crashedThread;
+    }
 
-        Thread thread = getCrashedThread();
-        // If a thread crashed use the top stack frames of it
-        if (thread != null) {
-            for(int i = 0 ; i < Math.min(thread.getFramesCount(), NUM_FINGERPRINT_FRAMES) ; i++) {
-                sb.append(getStackFrameBrief(thread.getFrames(i), i));
-            }
-        // Otherwise use the signal and exception info
-        } else {
-            sb.append(getSignalString());
-            sb.append(getExceptionString());
-        }
+    public String getCrashFingerPrint() throws NoSuchAlgorithmException {
+        return getCrashFingerPrint(CrashFingerPrinter.SHA1);
+    }
 
-        messageDigest.update(sb.toString().getBytes());
-        return new HexBinaryAdapter().marshal(messageDigest.digest());
+    public String getCrashFingerPrint(CrashFingerPrinter fingerPrinter) {
+        return fingerPrinter.getFingerPrint(this);
+    }
+
+    public String getCrashFingerPrint(CrashFingerPrinter fingerPrinter, FingerPrintStrategy strategy) {
+        return fingerPrinter.getFingerPrint(this, strategy);
+    }
 
+    /**
+     * Returns what fingerprinting reads from this report, to be saved for re-bucketing under other strategies.
+     */
+    public FingerPrintInput getFingerPrintInput() {
+        return FingerPrintInput.from(this);
     }
 
-    private PlCrashReportFileHeader header;
     private CrashReport_pb.CrashReport report;
+    private BinaryImageIndex imageIndex;
+    private volatile BinaryImageInfo imageInfos[];
+    private BinaryImageInterner imageInterner;
+    private CpuType cpuType;
+    private String codeType;
+    private Thread crashedThread;
 }
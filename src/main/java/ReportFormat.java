@@ -0,0 +1,88 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import java.io.IOException;
+
+/**
+ * Number and padding helpers used when writing reports, equivalent to the java.util.Formatter conversions the
+ * crash report format is defined in terms of.  Output never depends on the default locale.
+ */
+final class ReportFormat {
+    private static final char HEX_DIGITS[] = "0123456789abcdef".toCharArray();
+    private static final String SPACES = "                                        ";
+
+    private ReportFormat() { }
+
+    static void spaces(Appendable out, int count) throws IOException {
+        while (count > 0) {
+            int n = Math.min(count, SPACES.length());
+            out.append(SPACES, 0, n);
+            count -= n;
+        }
+    }
+
+    /** "%d" */
+    static void decimal(Appendable out, long value) throws IOException {
+        decimal(out, value, 0, false);
+    }
+
+    /** "%-<width>d" or "%<width>d" */
+    static void decimal(Appendable out, long value, int width, boolean leftJustify) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            pad(out, Long.toString(value), width, leftJustify);
+            return;
+        }
+
+        char buf[] = new char[20];
+        int pos = buf.length;
+        long v = Math.abs(value);
+        do {
+            buf[--pos] = (char)('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        if (value < 0) {
+            buf[--pos] = '-';
+        }
+
+        int length = buf.length - pos;
+        if (!leftJustify) {
+            spaces(out, width - length);
+        }
+        for (int i = pos; i < buf.length; i++) {
+            out.append(buf[i]);
+        }
+        if (leftJustify) {
+            spaces(out, width - length);
+        }
+    }
+
+    /** "%x", or "%0<minDigits>x" when minDigits is greater than one */
+    static void hex(Appendable out, long value, int minDigits) throws IOException {
+        int digits = Math.max(minDigits, hexDigits(value));
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            out.append(shift >= 64 ? '0' : HEX_DIGITS[(int)((value >>> shift) & 0xf)]);
+        }
+    }
+
+    /** "%#<width>x" */
+    static void prefixedHex(Appendable out, long value, int width) throws IOException {
+        spaces(out, width - 2 - hexDigits(value));
+        out.append("0x");
+        hex(out, value, 1);
+    }
+
+    /** "%-<width>s" or "%<width>s" */
+    static void pad(Appendable out, String value, int width, boolean leftJustify) throws IOException {
+        String s = String.valueOf(value);
+        if (!leftJustify) {
+            spaces(out, width - s.length());
+        }
+        out.append(s);
+        if (leftJustify) {
+            spaces(out, width - s.length());
+        }
+    }
+
+    private static int hexDigits(long value) {
+        return Math.max(1, (64 - Long.numberOfLeadingZeros(value) + 3) / 4);
+    }
+}
@@ -0,0 +1,265 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Results of analyzing reports, keyed by a hash of the raw file, so a report uploaded again is not decoded again.
+ *
+ * The key is the SHA-256 hash of the whole file, the same bytes the parser reads.  Reports come from untrusted
+ * uploads, so the key must resist crafted collisions that would return one report's result for another.  On a miss
+ * the report is decoded and its SHA1 fingerprint, JSON summary and rendered text are stored in a least recently
+ * used memory tier bounded by the size of the strings and, if a directory is given, in one file per report below it.
+ * The disk tier survives restarts and is never pruned; a file that can't be read or written is treated as a miss.
+ * Methods are thread safe; two threads missing on the same report at once both decode it.
+ */
+public class ReportResultCache {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int FILE_MAGIC = 0x706c7263;
+    private static final String FILE_EXTENSION = ".result";
+
+    /* Memory tier weight of an entry besides its strings */
+    private static final long ENTRY_OVERHEAD = 128;
+
+    private final File directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Result> results = new LinkedHashMap<String, Result>(16, 0.75f, true);
+    private long cachedBytes;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * A cache with only a memory tier.
+     */
+    public ReportResultCache() {
+        this(null, 64L << 20);
+    }
+
+    /**
+     * @param directory where the disk tier is kept, or null for none
+     * @param maxBytes approximate size limit of the memory tier
+     */
+    public ReportResultCache(File directory, long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    public static class Result {
+        private final String fingerPrint;
+        private final String summary;
+        private final String report;
+
+        Result(String fingerPrint, String summary, String report) {
+            this.fingerPrint = fingerPrint;
+            this.summary = summary;
+            this.report = report;
+        }
+
+        /** SHA1 fingerprint, as returned by getCrashFingerPrint() */
+        public String getFingerPrint() { return fingerPrint; }
+        /** JSON summary, as written by JsonSummaryWriter */
+        public String getSummary() { return summary; }
+        /** Rendered report, as returned by getCrashReport() */
+        public String getReport() { return report; }
+
+        long weigh() {
+            return ENTRY_OVERHEAD + 2L * (fingerPrint.length() + summary.length() + report.length());
+        }
+    }
+
+    public Result analyze(String path) throws IOException {
+        return analyze(PlCrashReporterAnalyzer.readFile(path, false));
+    }
+
+    /**
+     * Returns the cached result for the report in buffer, decoding and caching it on a miss.
+     */
+    public Result analyze(ByteBuffer buffer) throws IOException {
+        if (!PlCrashReportFileHeader.isValid(buffer)) {
+            throw new InvalidCrashReportException();
+        }
+        String key = hash(buffer);
+
+        Result result = getFromMemory(key);
+        if (result != null) {
+            memoryHits.incrementAndGet();
+            return result;
+        }
+
+        result = readFromDisk(key);
+        if (result != null) {
+            diskHits.incrementAndGet();
+            putInMemory(key, result);
+            return result;
+        }
+
+        misses.incrementAndGet();
+        PlCrashReporterAnalyzer analyzer = new PlCrashReporterAnalyzer(buffer.duplicate());
+        result = new Result(analyzer.getCrashFingerPrint(CrashFingerPrinter.SHA1),
+                JsonSummaryWriter.toJson(analyzer), analyzer.getCrashReport());
+        putInMemory(key, result);
+        writeToDisk(key, result);
+        return result;
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public synchronized int getCachedResultCount() {
+        return results.size();
+    }
+
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * Empties the memory tier.  The disk tier is left as it is.
+     */
+    public synchronized void clear() {
+        results.clear();
+        cachedBytes = 0;
+    }
+
+    /* Hex of the SHA-256 hash of buffer from index 0 to its limit, as parsed, whatever its position */
+    static String hash(ByteBuffer buffer) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        if (buffer.hasArray()) {
+            hasher.putBytes(buffer.array(), buffer.arrayOffset(), buffer.limit());
+        } else {
+            ByteBuffer input = buffer.duplicate();
+            input.rewind();
+            byte chunk[] = new byte[Math.min(input.remaining(), 64 << 10)];
+            while (input.hasRemaining()) {
+                int length = Math.min(chunk.length, input.remaining());
+                input.get(chunk, 0, length);
+                hasher.putBytes(chunk, 0, length);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    private synchronized Result getFromMemory(String key) {
+        return results.get(key);
+    }
+
+    private synchronized void putInMemory(String key, Result result) {
+        Result previous = results.put(key, result);
+        if (previous != null) {
+            cachedBytes -= previous.weigh();
+        }
+        cachedBytes += result.weigh();
+
+        Iterator<Map.Entry<String, Result>> entries = results.entrySet().iterator();
+        // Always keep the most recent entry, even if it alone is over the limit
+        while (cachedBytes > maxBytes && results.size() > 1) {
+            cachedBytes -= entries.next().getValue().weigh();
+            entries.remove();
+        }
+    }
+
+    /* Files are spread over subdirectories named by the first two hex digits of the key */
+    private File file(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key + FILE_EXTENSION);
+    }
+
+    private Result readFromDisk(String key) {
+        if (directory == null) {
+            return null;
+        }
+        File file = file(key);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != FILE_MAGIC) {
+                    return null;
+                }
+                long maxLength = file.length();
+                return new Result(readString(in, maxLength), readString(in, maxLength), readString(in, maxLength));
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Treated the same as a missing file
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, Result result) {
+        if (directory == null) {
+            return;
+        }
+        File file = file(key);
+        File temp = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+
+        try {
+            file.getParentFile().mkdirs();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(FILE_MAGIC);
+                writeString(out, result.fingerPrint);
+                writeString(out, result.summary);
+                writeString(out, result.report);
+            } finally {
+                out.close();
+            }
+            // Readers only ever see a complete file
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // The result stays in the memory tier
+            temp.delete();
+        }
+    }
+
+    /* maxLength is the size of the file, so a corrupt length can't make it allocate more */
+    private static String readString(DataInputStream in, long maxLength) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new IOException("Corrupt result file");
+        }
+        byte bytes[] = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte bytes[] = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
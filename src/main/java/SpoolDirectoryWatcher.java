@@ -0,0 +1,378 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Processes .plcrash files as they are written into a spool directory.
+ *
+ * run() first queues every report in the directory that the checkpoint does not list, then waits on a
+ * WatchService for new ones.  A file is only loaded once its size has stayed the same for settleMillis, so
+ * reports still being uploaded are not read half written; uploaders that rename complete files into the directory
+ * can use a settle time of zero.  Reports are parsed on a fork-join pool, within ParseLimits.DEFAULT, and passed
+ * to the handler.  At most maxInFlight reports are queued or being processed at once; beyond that the watch loop
+ * blocks, leaving new files to be picked up when workers catch up.
+ *
+ * The name of every file that has been handled, successfully or not, is appended to the checkpoint file so a
+ * restart skips it.  Names of files that have been removed from the directory are forgotten, as their deletion is
+ * seen and by a rescan every PRUNE_INTERVAL_MILLIS, so memory and the checkpoint only grow with the files actually
+ * in the directory; the checkpoint is compacted at start and whenever removed names make up half of it.
+ */
+public class SpoolDirectoryWatcher implements Closeable {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String GLOB = "*" + PlCrashBatchAnalyzer.FILE_EXTENSION;
+
+    /* How often removed files missed by the watch service are looked for */
+    public static final long PRUNE_INTERVAL_MILLIS = 10 * 60 * 1000;
+    /* Removed names the checkpoint may hold before it is compacted, at least */
+    private static final int MIN_STALE_ENTRIES = 1024;
+
+    /**
+     * Receives each report.  Called from worker threads, so implementations must be thread safe.
+     */
+    public interface Handler {
+        void reportReady(String path, PlCrashReporterAnalyzer analyzer) throws Exception;
+
+        void reportFailed(String path, Exception cause);
+    }
+
+    private final Path directory;
+    private final File checkpointFile;
+    private final Handler handler;
+    private final int parallelism;
+    private final int maxInFlight;
+    private final long settleMillis;
+
+    private final Set<String> processed = new HashSet<String>();
+    private final Set<String> inFlightNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    private Writer checkpoint;
+    /* Lines in the checkpoint for names no longer in processed */
+    private int staleEntries;
+    private volatile WatchService watchService;
+    private volatile boolean closed;
+
+    public SpoolDirectoryWatcher(File directory, File checkpointFile, Handler handler) {
+        this(directory, checkpointFile, handler, Runtime.getRuntime().availableProcessors(),
+                Runtime.getRuntime().availableProcessors() * 4, 200);
+    }
+
+    public SpoolDirectoryWatcher(File directory, File checkpointFile, Handler handler,
+                                 int parallelism, int maxInFlight, long settleMillis) {
+        if (parallelism < 1 || maxInFlight < 1 || settleMillis < 0) {
+            throw new IllegalArgumentException("parallelism and maxInFlight must be positive, settleMillis not negative");
+        }
+        this.directory = directory.toPath();
+        this.checkpointFile = checkpointFile;
+        this.handler = handler;
+        this.parallelism = parallelism;
+        this.maxInFlight = maxInFlight;
+        this.settleMillis = settleMillis;
+    }
+
+    /**
+     * A handler that records every report in store and ignores failures.
+     */
+    public static Handler recordInto(final FingerPrintBucketStore store) {
+        return new Handler() {
+            public void reportReady(String path, PlCrashReporterAnalyzer analyzer) throws IOException {
+                store.record(analyzer, path);
+            }
+
+            public void reportFailed(String path, Exception cause) {
+            }
+        };
+    }
+
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Watches the directory until close() is called.
+     */
+    public void run() throws IOException, InterruptedException {
+        try {
+            // Register before the initial scan so no file can arrive unseen in between
+            watchService = directory.getFileSystem().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            openCheckpoint();
+            watch();
+        } finally {
+            // close() waits for this on every exit path
+            try {
+                if (watchService != null) {
+                    watchService.close();
+                }
+                if (checkpoint != null) {
+                    checkpoint.close();
+                }
+            } finally {
+                stopped.countDown();
+            }
+        }
+    }
+
+    private void watch() throws IOException, InterruptedException {
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            // Files waiting to settle, with the size they had when last seen and when that was
+            Map<Path, long[]> pending = new LinkedHashMap<Path, long[]>();
+            scan(pending);
+            long nextPrune = System.currentTimeMillis() + PRUNE_INTERVAL_MILLIS;
+
+            while (!closed) {
+                long now = System.currentTimeMillis();
+                if (now >= nextPrune) {
+                    prune();
+                    nextPrune = now + PRUNE_INTERVAL_MILLIS;
+                }
+
+                for (Iterator<Map.Entry<Path, long[]>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+                    Map.Entry<Path, long[]> entry = it.next();
+                    Path file = entry.getKey();
+                    long state[] = entry.getValue();
+                    if (!Files.exists(file)) {
+                        it.remove();
+                        continue;
+                    }
+
+                    long size = file.toFile().length();
+                    if (size != state[0]) {
+                        state[0] = size;
+                        state[1] = now;
+                    } else if (now - state[1] >= settleMillis) {
+                        it.remove();
+                        inFlight.acquire();
+                        submit(pool, inFlight, file);
+                    }
+                }
+
+                WatchKey key;
+                try {
+                    long timeout = pending.isEmpty() ? nextPrune - now : Math.max(1, settleMillis / 4);
+                    key = watchService.poll(Math.max(1, timeout), TimeUnit.MILLISECONDS);
+                } catch (ClosedWatchServiceException e) {
+                    break;
+                }
+                if (key == null) {
+                    continue;
+                }
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // Deletions may have been lost too
+                        scan(pending);
+                        prune();
+                    } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                        Path file = directory.resolve((Path)event.context());
+                        pending.remove(file);
+                        forget(file.getFileName().toString());
+                    } else {
+                        Path file = directory.resolve((Path)event.context());
+                        if (isCandidate(file) && !pending.containsKey(file)) {
+                            pending.put(file, new long[] { -1, 0 });
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    // close() closing the watch service also invalidates the key
+                    if (closed) {
+                        break;
+                    }
+                    throw new IOException(directory + " is no longer accessible");
+                }
+            }
+        } finally {
+            pool.shutdown();
+            // Workers write to the checkpoint, so let them finish even if interrupted
+            inFlight.acquireUninterruptibly(maxInFlight);
+            inFlight.release(maxInFlight);
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Stops watching, waiting for reports already queued to finish if run() is active.
+     */
+    public void close() throws IOException {
+        closed = true;
+        if (watchService != null) {
+            watchService.close();
+            try {
+                stopped.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean isCandidate(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(PlCrashBatchAnalyzer.FILE_EXTENSION)
+                && !inFlightNames.contains(name)
+                && !isProcessed(name);
+    }
+
+    private void scan(Map<Path, long[]> pending) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, GLOB)) {
+            for (Path file : stream) {
+                if (isCandidate(file) && !pending.containsKey(file)) {
+                    pending.put(file, new long[] { -1, 0 });
+                }
+            }
+        }
+    }
+
+    private void submit(ForkJoinPool pool, final Semaphore inFlight, final Path file) {
+        final String name = file.getFileName().toString();
+        final String path = file.toString();
+        inFlightNames.add(name);
+
+        pool.execute(new Runnable() {
+            public void run() {
+                try {
+                    handler.reportReady(path, new PlCrashReporterAnalyzer(path, false, ParseLimits.DEFAULT));
+                    processedCount.incrementAndGet();
+                } catch (Exception e) {
+                    failedCount.incrementAndGet();
+                    handler.reportFailed(path, e);
+                } finally {
+                    try {
+                        markProcessed(name);
+                    } catch (IOException e) {
+                        handler.reportFailed(path, e);
+                    }
+                    inFlightNames.remove(name);
+                    inFlight.release();
+                }
+            }
+        });
+    }
+
+    private synchronized boolean isProcessed(String name) {
+        return processed.contains(name);
+    }
+
+    private synchronized void markProcessed(String name) throws IOException {
+        processed.add(name);
+        checkpoint.write(name);
+        checkpoint.write('\n');
+        checkpoint.flush();
+    }
+
+    /* Forgets a file removed from the directory */
+    private synchronized void forget(String name) throws IOException {
+        if (processed.remove(name)) {
+            staleEntries++;
+            if (staleEntries >= Math.max(MIN_STALE_ENTRIES, processed.size())) {
+                compactCheckpoint();
+            }
+        }
+    }
+
+    /* Forgets every processed file no longer in the directory */
+    private void prune() throws IOException {
+        Set<String> present = new HashSet<String>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, GLOB)) {
+            for (Path file : stream) {
+                present.add(file.getFileName().toString());
+            }
+        }
+
+        synchronized (this) {
+            for (Iterator<String> it = processed.iterator(); it.hasNext(); ) {
+                String name = it.next();
+                // Files handled since the listing are not in it
+                if (!present.contains(name) && !Files.exists(directory.resolve(name))) {
+                    it.remove();
+                    staleEntries++;
+                }
+            }
+            if (staleEntries > 0) {
+                compactCheckpoint();
+            }
+        }
+    }
+
+    private synchronized void openCheckpoint() throws IOException {
+        if (checkpointFile.isFile()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(checkpointFile), UTF8));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // Forget files that have since been removed from the spool directory
+                    if (!line.isEmpty() && Files.exists(directory.resolve(line))) {
+                        processed.add(line);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        compactCheckpoint();
+    }
+
+    /* Rewrites the checkpoint with only the names in processed */
+    private synchronized void compactCheckpoint() throws IOException {
+        if (checkpoint != null) {
+            checkpoint.close();
+            checkpoint = null;
+        }
+
+        File compacted = new File(checkpointFile.getPath() + ".tmp");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(compacted), UTF8));
+        try {
+            for (String name : processed) {
+                writer.write(name);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        Files.move(compacted.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        checkpoint = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(checkpointFile, true), UTF8));
+        staleEntries = 0;
+    }
+}
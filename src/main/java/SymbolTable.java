@@ -0,0 +1,222 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Memory mapped symbol table for one binary image.
+ *
+ * The file holds the start offset of every symbol, relative to the image base and sorted ascending, followed by
+ * a name offset per symbol and a table of names in which each distinct name is stored once:
+ *
+ *   "plsy" | int version | int count | int reserved
+ *   long start[count] | int nameOffset[count]
+ *   names: short length, UTF-8 bytes ...
+ *
+ * Tables are written once by convert() from nm output and only read afterwards, so lookups use absolute gets on
+ * the shared mapping and are safe from any thread.
+ */
+public final class SymbolTable {
+    static final int VERSION = 1;
+    private static final byte MAGIC[] = { 'p', 'l', 's', 'y' };
+    private static final int HEADER_SIZE = 16;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int namesOffset;
+
+    private SymbolTable(ByteBuffer buffer) throws IOException {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (buffer.limit() < HEADER_SIZE || buffer.get(i) != MAGIC[i]) {
+                throw new IOException("Not a symbol table");
+            }
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported symbol table version " + buffer.getInt(4));
+        }
+
+        int count = buffer.getInt(8);
+        // As a long so a huge count can't wrap around to a small offset
+        long namesOffset = HEADER_SIZE + (long)count * 12;
+        if (count < 0 || namesOffset > buffer.limit()) {
+            throw new IOException("Truncated symbol table");
+        }
+
+        this.buffer = buffer;
+        this.count = count;
+        this.namesOffset = (int)namesOffset;
+    }
+
+    public static SymbolTable load(File file) throws IOException {
+        return new SymbolTable(PlCrashReporterAnalyzer.readFile(file.getPath(), true));
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Size of the table on disk, used to weigh it in the Symbolicator cache.
+     */
+    long getByteSize() {
+        return buffer.limit();
+    }
+
+    /**
+     * Returns the index of the symbol containing the image offset, that is the last symbol starting at or
+     * before it, or -1 if the offset is before the first symbol.
+     */
+    public int indexOf(long offset) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (getStart(mid) <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    public long getStart(int idx) {
+        return buffer.getLong(HEADER_SIZE + idx * 8);
+    }
+
+    /**
+     * @throws IOException if the name offset or length of the symbol point outside the file
+     */
+    public String getName(int idx) throws IOException {
+        long offset = (long)namesOffset + buffer.getInt(HEADER_SIZE + count * 8 + idx * 4);
+        if (offset < namesOffset || offset + 2 > buffer.limit()) {
+            throw new IOException("Corrupt symbol table");
+        }
+        int length = buffer.getShort((int)offset) & 0xffff;
+        if (offset + 2 + length > buffer.limit()) {
+            throw new IOException("Corrupt symbol table");
+        }
+
+        byte name[] = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position((int)offset + 2);
+        source.get(name);
+        return new String(name, UTF8);
+    }
+
+    /**
+     * Converts nm output (as from nm -n) into a symbol table file.  Only text symbols are kept; lines of just
+     * an address and a name, as exported from a dSYM, are accepted too.  baseAddress is the address the image
+     * was linked at and is subtracted from every symbol address.
+     */
+    public static int convert(Reader nmOutput, long baseAddress, File file) throws IOException {
+        final List<Long> starts = new ArrayList<Long>();
+        List<String> names = new ArrayList<String>();
+
+        BufferedReader reader = new BufferedReader(nmOutput);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String fields[] = line.trim().split("\\s+", 3);
+            String name;
+            if (fields.length == 3 && (fields[1].equals("T") || fields[1].equals("t"))) {
+                name = fields[2];
+            } else if (fields.length == 2) {
+                name = fields[1];
+            } else {
+                continue;
+            }
+
+            long address;
+            try {
+                address = Long.parseLong(fields[0].startsWith("0x") ? fields[0].substring(2) : fields[0], 16);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (address < baseAddress) {
+                continue;
+            }
+            starts.add(address - baseAddress);
+            names.add(name);
+        }
+
+        Integer sorted[] = new Integer[starts.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(starts.get(a), starts.get(b));
+            }
+        });
+
+        // Keep the first symbol at each address and write each distinct name once
+        ByteArrayOutputStream nameTable = new ByteArrayOutputStream();
+        Map<String, Integer> nameOffsets = new HashMap<String, Integer>();
+        long symbolStarts[] = new long[sorted.length];
+        int symbolNames[] = new int[sorted.length];
+        int count = 0;
+        for (Integer idx : sorted) {
+            long start = starts.get(idx);
+            if (count > 0 && symbolStarts[count - 1] == start) {
+                continue;
+            }
+
+            String name = names.get(idx);
+            Integer nameOffset = nameOffsets.get(name);
+            if (nameOffset == null) {
+                byte bytes[] = name.getBytes(UTF8);
+                int length = Math.min(bytes.length, 0xffff);
+                nameOffset = nameTable.size();
+                nameTable.write(length >> 8);
+                nameTable.write(length);
+                nameTable.write(bytes, 0, length);
+                nameOffsets.put(name, nameOffset);
+            }
+
+            symbolStarts[count] = start;
+            symbolNames[count] = nameOffset;
+            count++;
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            out.writeInt(0);
+            for (int i = 0; i < count; i++) {
+                out.writeLong(symbolStarts[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeInt(symbolNames[i]);
+            }
+            nameTable.writeTo(out);
+        } finally {
+            out.close();
+        }
+        return count;
+    }
+
+    /**
+     * Usage: SymbolTable nm-output base-address output
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: SymbolTable nm-output base-address output");
+            System.exit(1);
+        }
+
+        long baseAddress = Long.decode(args[1]);
+        Reader in = new InputStreamReader(new FileInputStream(args[0]), UTF8);
+        try {
+            int count = convert(in, baseAddress, new File(args[2]));
+            System.out.println("Wrote " + count + " symbols to " + args[2]);
+        } finally {
+            in.close();
+        }
+    }
+}
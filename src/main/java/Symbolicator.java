@@ -0,0 +1,135 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resolves stack frames to symbol names using SymbolTable files named <uuid>.sym in a directory, where uuid is
+ * the 32 digit lowercase hex image UUID.
+ *
+ * Loaded tables are kept in a least recently used cache bounded by their total size on disk and shared by every
+ * report symbolicated through this instance.  Images without a symbol file are remembered too, so they are only
+ * looked for again after MISSING_RECHECK_MILLIS, in case the file has been added since.  Files are opened and
+ * mapped outside the cache lock; threads missing on the same image at once each load it and one copy is kept.
+ * Evicted tables are unmapped when they are garbage collected.
+ */
+public class Symbolicator {
+    public static final String FILE_EXTENSION = ".sym";
+
+    /* How long an image without a symbol file is remembered as missing */
+    public static final long MISSING_RECHECK_MILLIS = 60 * 1000;
+
+    /* Cache weight of an image that has no symbol file */
+    private static final long MISSING_WEIGHT = 64;
+
+    private final File directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> tables = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long cachedBytes;
+
+    public Symbolicator(File directory) {
+        this(directory, 256L << 20);
+    }
+
+    public Symbolicator(File directory, long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /* A loaded table, or a missing one with the time to look for it again */
+    private static final class Entry {
+        final SymbolTable table;
+        final long recheckMillis;
+
+        Entry(SymbolTable table, long recheckMillis) {
+            this.table = table;
+            this.recheckMillis = recheckMillis;
+        }
+
+        long weigh() {
+            return table == null ? MISSING_WEIGHT : table.getByteSize();
+        }
+    }
+
+    /**
+     * Returns the symbol table for the image with the given UUID, or null if there is none or it can't be read.
+     */
+    public SymbolTable getSymbolTable(String uuid) {
+        synchronized (this) {
+            Entry entry = tables.get(uuid);
+            if (entry != null && (entry.table != null || System.currentTimeMillis() < entry.recheckMillis)) {
+                return entry.table;
+            }
+        }
+
+        SymbolTable table = null;
+        File file = new File(directory, uuid + FILE_EXTENSION);
+        if (file.isFile()) {
+            try {
+                table = SymbolTable.load(file);
+            } catch (IOException e) {
+                // Treated the same as a missing file
+            }
+        }
+
+        synchronized (this) {
+            Entry entry = tables.get(uuid);
+            if (entry != null && entry.table != null) {
+                // Another thread loaded it meanwhile
+                return entry.table;
+            }
+
+            entry = new Entry(table, table == null ? System.currentTimeMillis() + MISSING_RECHECK_MILLIS : 0);
+            Entry previous = tables.put(uuid, entry);
+            if (previous != null) {
+                cachedBytes -= previous.weigh();
+            }
+            cachedBytes += entry.weigh();
+            evict();
+            return table;
+        }
+    }
+
+    /**
+     * Appends "name + offset" for the frame at the given offset into the image, returning false and appending
+     * nothing if the frame can't be symbolicated.
+     */
+    public boolean symbolicate(Appendable out, String uuid, long imageOffset) throws IOException {
+        SymbolTable table = getSymbolTable(uuid);
+        if (table == null) {
+            return false;
+        }
+
+        int idx = table.indexOf(imageOffset);
+        if (idx < 0) {
+            return false;
+        }
+
+        out.append(table.getName(idx)).append(" + ");
+        ReportFormat.decimal(out, imageOffset - table.getStart(idx));
+        return true;
+    }
+
+    public synchronized int getCachedTableCount() {
+        return tables.size();
+    }
+
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> entries = tables.entrySet().iterator();
+        // Always keep the most recent entry, even if it alone is over the limit
+        while (cachedBytes > maxBytes && tables.size() > 1) {
+            cachedBytes -= entries.next().getValue().weigh();
+            entries.remove();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.wyntersoft.crashreporteranalyzer;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Renders each .plcrash file under golden/ and compares the text with the .txt file of the same name.
+ *
+ * The 32-bit golden files are the output of the original String.format renderer.  Date/Time is rendered in the
+ * default time zone, so the tests run in UTC.
+ */
+@RunWith(Parameterized.class)
+public class CrashReportGoldenTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static TimeZone defaultTimeZone;
+
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> reports() {
+        return Arrays.asList(new Object[][] {
+                { "arm32-crashed" },
+                { "x86_64-crashed" },
+                { "no-crashed-thread" },
+                { "unknown-image" },
+                { "non-ascii" }
+        });
+    }
+
+    private final String name;
+
+    public CrashReportGoldenTest(String name) {
+        this.name = name;
+    }
+
+    @BeforeClass
+    public static void useUtc() {
+        defaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    }
+
+    @AfterClass
+    public static void restoreTimeZone() {
+        TimeZone.setDefault(defaultTimeZone);
+    }
+
+    @Test
+    public void getCrashReportMatchesGolden() throws IOException {
+        assertArrayEquals(expected(), analyzer().getCrashReport().getBytes(UTF8));
+    }
+
+    @Test
+    public void writeCrashReportToAppendableMatchesGolden() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        analyzer().writeCrashReport(sb);
+        assertArrayEquals(expected(), sb.toString().getBytes(UTF8));
+    }
+
+    @Test
+    public void writeCrashReportToOutputStreamMatchesGolden() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        analyzer().writeCrashReport(out);
+        assertArrayEquals(expected(), out.toByteArray());
+    }
+
+    private PlCrashReporterAnalyzer analyzer() throws IOException {
+        return new PlCrashReporterAnalyzer(ByteBuffer.wrap(resource(name + ".plcrash")));
+    }
+
+    private byte[] expected() throws IOException {
+        return resource(name + ".txt");
+    }
+
+    private static byte[] resource(String fileName) throws IOException {
+        InputStream in = CrashReportGoldenTest.class.getResourceAsStream("/golden/" + fileName);
+        assertNotNull("missing golden file " + fileName, in);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte buffer[] = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}